@@ -19,6 +19,8 @@ android {
         minSdk = libMinSdk
         compileSdk = libCompileSdk
         targetSdk = libTargetSdk
+
+        consumerProguardFiles("consumer-rules.pro")
     }
 
     publishing {
@@ -35,6 +37,10 @@ android {
     kotlinOptions {
         jvmTarget = javaVersion.toString()
     }
+
+    testOptions {
+        unitTests.isIncludeAndroidResources = true
+    }
 }
 
 dependencies {
@@ -43,6 +49,9 @@ dependencies {
     implementation("androidx.viewpager2:viewpager2:1.0.0")
 
     api("com.github.infomaniak:pdfiumandroid:1.9.6")
+
+    testImplementation("junit:junit:4.13.2")
+    testImplementation("org.robolectric:robolectric:4.11.1")
 }
 
 // ./gradlew clean build publish -Prelease=true
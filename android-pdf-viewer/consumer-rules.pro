@@ -0,0 +1,8 @@
+# Pages are closed through the internals of the pdfium bindings, see PdfFile.closePage
+-keepclassmembers class com.shockwave.pdfium.PdfiumCore {
+    *** nativeClosePage(long);
+    *** lock;
+}
+-keepclassmembers class com.shockwave.pdfium.PdfDocument {
+    *** mNativePagesPtr;
+}
@@ -145,6 +145,20 @@ class AnimationManager {
         return flinging || pageFlinging;
     }
 
+    /**
+     * True if a fling started by {@link #startFlingAnimation} is running, its end is then known in advance
+     */
+    boolean isFreeFlinging() {
+        return flinging && !scroller.isFinished();
+    }
+
+    /**
+     * Get the offset the current fling will stop at, along the swipe axis
+     */
+    int getFlingFinalOffset() {
+        return pdfView.isSwipeVertical() ? scroller.getFinalY() : scroller.getFinalX();
+    }
+
     private void hideHandle() {
         if (pdfView.getScrollHandle() != null) {
             pdfView.getScrollHandle().hideDelayed();
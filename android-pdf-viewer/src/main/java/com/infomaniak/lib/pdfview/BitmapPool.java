@@ -0,0 +1,125 @@
+/*
+ * Infomaniak android-pdf-viewer
+ * Copyright (C) 2024 Infomaniak Network SA
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.infomaniak.lib.pdfview;
+
+import static com.infomaniak.lib.pdfview.util.Constants.Cache.BITMAP_POOL_SIZE;
+import static com.infomaniak.lib.pdfview.util.Constants.PART_SIZE;
+
+import android.graphics.Bitmap;
+import android.graphics.Color;
+import android.util.Log;
+import android.util.LongSparseArray;
+
+import java.util.ArrayDeque;
+
+/**
+ * Keeps the bitmaps evicted from the cache so that they can be reused by the next renderings
+ * instead of allocating and recycling a bitmap for each part.
+ * <p>
+ * Bitmaps are grouped by config and pixel capacity. Every part smaller than {@code PART_SIZE}
+ * squared shares the same buffers, which are reconfigured to the size of the part being rendered.
+ */
+class BitmapPool {
+
+    private static final String TAG = BitmapPool.class.getSimpleName();
+
+    private static final int PART_CAPACITY = (int) (PART_SIZE * PART_SIZE);
+
+    private final LongSparseArray<ArrayDeque<Bitmap>> pool = new LongSparseArray<>();
+
+    private long pooledBytes = 0;
+
+    /**
+     * Get a mutable bitmap of the given size, reusing a pooled one when possible.
+     * It's transparent like a new bitmap: pdfium renders pages on a transparent background,
+     * the pixels of a previous rendering would show through.
+     */
+    public synchronized Bitmap acquire(int width, int height, Bitmap.Config config) {
+        int capacity = capacityFor(width, height);
+        ArrayDeque<Bitmap> bitmaps = pool.get(key(capacity, config));
+        Bitmap bitmap = bitmaps != null ? bitmaps.poll() : null;
+        if (bitmap != null) {
+            pooledBytes -= bitmap.getAllocationByteCount();
+            try {
+                bitmap.reconfigure(width, height, config);
+                bitmap.eraseColor(Color.TRANSPARENT);
+                return bitmap;
+            } catch (IllegalArgumentException e) {
+                Log.w(TAG, "Cannot reuse bitmap", e);
+                bitmap.recycle();
+            }
+        }
+
+        if (capacity == PART_CAPACITY) {
+            // Allocate a full part buffer, so that it can be reused for any part later
+            bitmap = Bitmap.createBitmap((int) PART_SIZE, (int) PART_SIZE, config);
+            bitmap.reconfigure(width, height, config);
+            return bitmap;
+        }
+        return Bitmap.createBitmap(width, height, config);
+    }
+
+    /**
+     * Give back a bitmap that is not used anymore. It's recycled if the pool is full.
+     */
+    public synchronized void release(Bitmap bitmap) {
+        if (bitmap == null || bitmap.isRecycled()) {
+            return;
+        }
+        if (!bitmap.isMutable() || pooledBytes + bitmap.getAllocationByteCount() > BITMAP_POOL_SIZE) {
+            bitmap.recycle();
+            return;
+        }
+
+        long key = key(pixelCapacity(bitmap), bitmap.getConfig());
+        ArrayDeque<Bitmap> bitmaps = pool.get(key);
+        if (bitmaps == null) {
+            bitmaps = new ArrayDeque<>();
+            pool.put(key, bitmaps);
+        }
+        bitmaps.push(bitmap);
+        pooledBytes += bitmap.getAllocationByteCount();
+    }
+
+    /**
+     * Recycle all the pooled bitmaps
+     */
+    public synchronized void clear() {
+        for (int i = 0; i < pool.size(); i++) {
+            for (Bitmap bitmap : pool.valueAt(i)) {
+                bitmap.recycle();
+            }
+        }
+        pool.clear();
+        pooledBytes = 0;
+    }
+
+    private static int capacityFor(int width, int height) {
+        int pixels = width * height;
+        return pixels <= PART_CAPACITY ? PART_CAPACITY : pixels;
+    }
+
+    private static int pixelCapacity(Bitmap bitmap) {
+        int bytesPerPixel = bitmap.getConfig() == Bitmap.Config.ARGB_8888 ? 4 : 2;
+        return bitmap.getAllocationByteCount() / bytesPerPixel;
+    }
+
+    private static long key(int capacity, Bitmap.Config config) {
+        return ((long) capacity << 8) | config.ordinal();
+    }
+}
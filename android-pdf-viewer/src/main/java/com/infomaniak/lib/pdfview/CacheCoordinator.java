@@ -0,0 +1,149 @@
+/*
+ * Infomaniak android-pdf-viewer
+ * Copyright (C) 2024 Infomaniak Network SA
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.infomaniak.lib.pdfview;
+
+import android.content.Context;
+import android.util.DisplayMetrics;
+
+import com.infomaniak.lib.pdfview.util.Constants;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Shares one memory budget between all the {@link PDFView} using a shared cache, instead of each view
+ * having its own, so that several documents alive at once (in a ViewPager for example) don't multiply
+ * the memory used by their caches.
+ * <p>
+ * The active view, the last one touched unless set with {@link #setActiveView(PDFView)}, gets the largest
+ * share of the budget and the other views split the rest. Budgets of the background views are reduced
+ * first, so that they evict their parts before the active view grows.
+ * <p>
+ * Must be used on the main thread.
+ */
+public class CacheCoordinator {
+
+    private static CacheCoordinator instance;
+
+    private final List<PDFView> views = new ArrayList<>();
+
+    private PDFView activeView;
+
+    private long partsCacheSize;
+
+    private long thumbnailsCacheSize;
+
+    private CacheCoordinator(long partsCacheSize, long thumbnailsCacheSize) {
+        this.partsCacheSize = partsCacheSize;
+        this.thumbnailsCacheSize = thumbnailsCacheSize;
+    }
+
+    /**
+     * Get the coordinator of the process, its budget is derived from the memory of the device
+     * and the size of the screen until {@link #setCacheSizes(long, long)} is called
+     */
+    public static synchronized CacheCoordinator getInstance(Context context) {
+        if (instance == null) {
+            DisplayMetrics metrics = context.getResources().getDisplayMetrics();
+            instance = new CacheCoordinator(
+                    CacheManager.getDefaultPartsCacheSize(context, metrics.widthPixels, metrics.heightPixels),
+                    CacheManager.getDefaultThumbnailsCacheSize(context)
+            );
+        }
+        return instance;
+    }
+
+    /**
+     * Set the maximum sizes in bytes of the rendered parts and of the thumbnails kept in memory,
+     * shared by all the registered views
+     */
+    public void setCacheSizes(long partsCacheSize, long thumbnailsCacheSize) {
+        if (partsCacheSize <= 0) throw new IllegalArgumentException("partsCacheSize must be greater than 0");
+        if (thumbnailsCacheSize <= 0) throw new IllegalArgumentException("thumbnailsCacheSize must be greater than 0");
+        this.partsCacheSize = partsCacheSize;
+        this.thumbnailsCacheSize = thumbnailsCacheSize;
+        distribute();
+    }
+
+    public long getPartsCacheSize() {
+        return partsCacheSize;
+    }
+
+    public long getThumbnailsCacheSize() {
+        return thumbnailsCacheSize;
+    }
+
+    /**
+     * Give the largest share of the budget to the given view, the one shown to the user
+     */
+    public void setActiveView(PDFView view) {
+        if (activeView == view || !views.contains(view)) {
+            return;
+        }
+        activeView = view;
+        distribute();
+    }
+
+    void register(PDFView view) {
+        if (views.contains(view)) {
+            return;
+        }
+        views.add(view);
+        if (activeView == null) {
+            activeView = view;
+        }
+        distribute();
+    }
+
+    void unregister(PDFView view) {
+        if (!views.remove(view)) {
+            return;
+        }
+        if (activeView == view) {
+            activeView = views.isEmpty() ? null : views.get(views.size() - 1);
+        }
+        distribute();
+    }
+
+    private void distribute() {
+        if (views.isEmpty()) {
+            return;
+        }
+        if (views.size() == 1) {
+            views.get(0).applyCacheSizes(partsCacheSize, thumbnailsCacheSize);
+            return;
+        }
+
+        float activeShare = Constants.Cache.ACTIVE_VIEW_SHARE;
+        float backgroundShare = (1 - activeShare) / (views.size() - 1);
+
+        // Shrink the background views first, their parts are evicted before the active view takes their place
+        for (PDFView view : views) {
+            if (view != activeView) {
+                view.applyCacheSizes(
+                        (long) (partsCacheSize * backgroundShare),
+                        (long) (thumbnailsCacheSize * backgroundShare)
+                );
+            }
+        }
+        activeView.applyCacheSizes(
+                (long) (partsCacheSize * activeShare),
+                (long) (thumbnailsCacheSize * activeShare)
+        );
+    }
+}
@@ -17,181 +17,483 @@
  */
 package com.infomaniak.lib.pdfview;
 
-import static com.infomaniak.lib.pdfview.util.Constants.Cache.CACHE_SIZE;
-import static com.infomaniak.lib.pdfview.util.Constants.Cache.THUMBNAILS_CACHE_SIZE;
-
-import android.graphics.RectF;
+import android.app.ActivityManager;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.util.SparseArray;
 
 import androidx.annotation.Nullable;
 
 import com.infomaniak.lib.pdfview.model.PagePart;
+import com.infomaniak.lib.pdfview.util.Constants;
 
 import java.util.ArrayList;
-import java.util.Collection;
+import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.PriorityQueue;
 
 class CacheManager {
 
-    private final PriorityQueue<PagePart> passiveCache;
+    /**
+     * Cached parts by their packed key, see {@link #partKey(int, int, int, int)}
+     */
+    private final HashMap<Long, Entry> parts = new HashMap<>();
+
+    /**
+     * Least recently used end of the list linking all the entries, the first one to be evicted
+     */
+    private Entry eldest;
 
-    private final PriorityQueue<PagePart> activeCache;
+    /**
+     * Most recently used end of the list linking all the entries
+     */
+    private Entry youngest;
 
-    private final List<PagePart> thumbnails;
+    /**
+     * Current set of parts. Parts of a previous generation are the passive ones: they have not been asked
+     * for since the last {@link #makeANewSet()}, so they all sit before the active ones in the LRU list.
+     */
+    private int generation;
+
+    /**
+     * Thumbnails by page, in insertion order so that the eldest one is evicted first
+     */
+    private final LinkedHashMap<Integer, PagePart> thumbnails = new LinkedHashMap<>();
+
+    /**
+     * Cached parts grouped by page, so that drawing only visits the visible pages
+     */
+    private final SparseArray<List<PagePart>> partsByPage = new SparseArray<>();
 
     private final Object passiveActiveLock = new Object();
 
-    private final PagePartComparator orderComparator = new PagePartComparator();
+    private final BitmapPool bitmapPool;
+
+    /**
+     * Maximum size in bytes of the bitmaps of the parts, and their current size
+     */
+    private long partsCacheSize;
+    private long partsBytes;
+
+    /**
+     * Maximum size in bytes of the bitmaps of the thumbnails, and their current size
+     */
+    private long thumbnailsCacheSize;
+    private long thumbnailsBytes;
+
+    /**
+     * While pages are loaded for printing, no thumbnail is evicted until all of them have been delivered
+     */
+    private boolean thumbnailsPinned;
 
-    public CacheManager() {
-        activeCache = new PriorityQueue<>(CACHE_SIZE, orderComparator);
-        passiveCache = new PriorityQueue<>(CACHE_SIZE, orderComparator);
-        thumbnails = new ArrayList<>();
+    public CacheManager(BitmapPool bitmapPool, long partsCacheSize, long thumbnailsCacheSize) {
+        this.bitmapPool = bitmapPool;
+        this.partsCacheSize = partsCacheSize;
+        this.thumbnailsCacheSize = thumbnailsCacheSize;
     }
 
-    @Nullable
-    private static PagePart find(PriorityQueue<PagePart> vector, PagePart fakePart) {
-        for (PagePart part : vector) {
-            if (part.equals(fakePart)) {
-                return part;
-            }
+    /**
+     * Default size in bytes of the parts cache: a share of the heap available to the app, but enough
+     * to cover the view a few times over so that large screens are filled at any zoom
+     */
+    static long getDefaultPartsCacheSize(Context context, int viewWidth, int viewHeight) {
+        long heapSize = getHeapSize(context);
+        float heapFraction = isLowRamDevice(context)
+                ? Constants.Cache.LOW_RAM_PARTS_HEAP_FRACTION
+                : Constants.Cache.PARTS_HEAP_FRACTION;
+        long viewBytes = (long) viewWidth * viewHeight * 4;
+        long size = Math.max((long) (heapSize * heapFraction), viewBytes * Constants.Cache.PARTS_VIEW_COVERAGE);
+        return Math.min(size, (long) (heapSize * Constants.Cache.MAX_HEAP_FRACTION));
+    }
+
+    /**
+     * Default size in bytes of the thumbnails cache, a share of the heap available to the app
+     */
+    static long getDefaultThumbnailsCacheSize(Context context) {
+        float heapFraction = isLowRamDevice(context)
+                ? Constants.Cache.LOW_RAM_THUMBNAILS_HEAP_FRACTION
+                : Constants.Cache.THUMBNAILS_HEAP_FRACTION;
+        return (long) (getHeapSize(context) * heapFraction);
+    }
+
+    private static long getHeapSize(Context context) {
+        ActivityManager activityManager = (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+        if (activityManager == null) {
+            return Runtime.getRuntime().maxMemory();
         }
-        return null;
+        return activityManager.getMemoryClass() * 1024L * 1024L;
+    }
+
+    private static boolean isLowRamDevice(Context context) {
+        ActivityManager activityManager = (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+        return activityManager != null && activityManager.isLowRamDevice();
+    }
+
+    private static long getByteCount(PagePart part) {
+        Bitmap bitmap = part.getRenderedBitmap();
+        return bitmap == null ? 0 : bitmap.getAllocationByteCount();
+    }
+
+    /**
+     * Change the maximum sizes in bytes of the caches, evicting what doesn't fit anymore
+     */
+    public void setCacheSizes(long partsCacheSize, long thumbnailsCacheSize) {
+        synchronized (passiveActiveLock) {
+            this.partsCacheSize = partsCacheSize;
+            makeAFreeSpace(0);
+        }
+        synchronized (thumbnails) {
+            this.thumbnailsCacheSize = thumbnailsCacheSize;
+            makeAFreeThumbnailsSpace(0);
+        }
+    }
+
+    /**
+     * Number of parts of the given size in bytes fitting in the cache, at least one
+     */
+    public int getMaxParts(long partBytes) {
+        synchronized (passiveActiveLock) {
+            return (int) Math.max(1, Math.min(Integer.MAX_VALUE, partsCacheSize / partBytes));
+        }
+    }
+
+    /**
+     * Pack the identity of a part in a single key. For a given layout, the grid of a page only depends on
+     * the zoom level, so a cell of that grid always covers the same bounds. The grid changes with the size
+     * of the page, so the parts must be dropped with {@link #removeAllParts()} whenever the layout is
+     * recalculated. Rows and columns are kept on 12 bits, far more than the grid of a page can hold at
+     * the maximum zoom.
+     */
+    static long partKey(int page, int zoomLevel, int row, int col) {
+        return ((long) page << 32)
+                | ((long) (zoomLevel & 0xFF) << 24)
+                | ((long) (row & 0xFFF) << 12)
+                | (col & 0xFFF);
     }
 
     public void cachePart(PagePart part) {
         synchronized (passiveActiveLock) {
-            // If cache too big, remove and recycle
-            makeAFreeSpace();
+            Entry entry = parts.get(part.getCacheKey());
+            if (entry != null) {
+                // Rendered again while still cached, keep the part already drawn
+                bitmapPool.release(part.getRenderedBitmap());
+                touch(entry);
+                return;
+            }
+
+            // If cache too big, remove and give the bitmaps back to the pool
+            long byteCount = getByteCount(part);
+            makeAFreeSpace(byteCount);
 
             // Then add part
-            activeCache.offer(part);
+            entry = new Entry(part, byteCount, generation);
+            parts.put(part.getCacheKey(), entry);
+            partsBytes += byteCount;
+            linkYoungest(entry);
+            indexPart(part);
+        }
+    }
+
+    private void indexPart(PagePart part) {
+        List<PagePart> pageParts = partsByPage.get(part.getPage());
+        if (pageParts == null) {
+            pageParts = new ArrayList<>();
+            partsByPage.put(part.getPage(), pageParts);
+        }
+        pageParts.add(part);
+    }
+
+    private void unindexPart(PagePart part) {
+        List<PagePart> pageParts = partsByPage.get(part.getPage());
+        if (pageParts == null) {
+            return;
+        }
+        for (int i = 0; i < pageParts.size(); i++) {
+            if (pageParts.get(i) == part) {
+                // Order doesn't matter, move the last part in place of the removed one
+                int last = pageParts.size() - 1;
+                pageParts.set(i, pageParts.get(last));
+                pageParts.remove(last);
+                return;
+            }
         }
     }
 
+    /**
+     * Start a new set of parts, all the cached ones become passive until they are asked for again
+     */
     public void makeANewSet() {
         synchronized (passiveActiveLock) {
-            passiveCache.addAll(activeCache);
-            activeCache.clear();
+            generation++;
         }
     }
 
-    private void makeAFreeSpace() {
-        synchronized (passiveActiveLock) {
-            while ((activeCache.size() + passiveCache.size()) >= CACHE_SIZE && !passiveCache.isEmpty()) {
-                recycleBitmapsFromPart(passiveCache);
-            }
+    /**
+     * Evict the least recently used parts until the given number of bytes fits in the cache
+     */
+    private void makeAFreeSpace(long byteCount) {
+        while (partsBytes + byteCount > partsCacheSize && eldest != null) {
+            evict(eldest);
+        }
+    }
 
-            while ((activeCache.size() + passiveCache.size()) >= CACHE_SIZE && !activeCache.isEmpty()) {
-                recycleBitmapsFromPart(activeCache);
-            }
+    /**
+     * Keep every cached thumbnail, or allow evicting them again
+     */
+    public void setThumbnailsPinned(boolean pinned) {
+        synchronized (thumbnails) {
+            thumbnailsPinned = pinned;
+        }
+    }
+
+    private void makeAFreeThumbnailsSpace(long byteCount) {
+        if (thumbnailsPinned) {
+            return;
+        }
+        Iterator<PagePart> iterator = thumbnails.values().iterator();
+        while (thumbnailsBytes + byteCount > thumbnailsCacheSize && iterator.hasNext()) {
+            PagePart thumbnail = iterator.next();
+            iterator.remove();
+            thumbnailsBytes -= getByteCount(thumbnail);
+            bitmapPool.release(thumbnail.getRenderedBitmap());
         }
     }
 
     public void cacheThumbnail(PagePart part, boolean isForPrinting) {
         synchronized (thumbnails) {
-            // If cache too big, remove and recycle. But if we're printing, we don't want any limit.
-            while (!isForPrinting && thumbnails.size() >= THUMBNAILS_CACHE_SIZE) {
-                thumbnails.remove(0).getRenderedBitmap().recycle();
+            if (thumbnails.containsKey(part.getPage())) {
+                bitmapPool.release(part.getRenderedBitmap());
+                return;
+            }
+
+            // If cache too big, remove and release. But if we're printing, we don't want any limit.
+            long byteCount = getByteCount(part);
+            if (!isForPrinting) {
+                makeAFreeThumbnailsSpace(byteCount);
             }
 
             // Then add thumbnail
-            addWithoutDuplicates(thumbnails, part);
+            thumbnails.put(part.getPage(), part);
+            thumbnailsBytes += byteCount;
         }
     }
 
-    public boolean upPartIfContained(int page, RectF pageRelativeBounds, int toOrder) {
-        PagePart fakePart = new PagePart(page, null, pageRelativeBounds, false, 0);
-
-        PagePart found;
+    /**
+     * Make the part of the given key active with a new cache order, if it is cached
+     *
+     * @return true if the part is cached
+     */
+    public boolean upPartIfContained(long partKey, int toOrder) {
         synchronized (passiveActiveLock) {
-            if ((found = find(passiveCache, fakePart)) != null) {
-                passiveCache.remove(found);
-                found.setCacheOrder(toOrder);
-                activeCache.offer(found);
-                return true;
+            Entry entry = parts.get(partKey);
+            if (entry == null) {
+                return false;
+            }
+            // Active parts are already in order
+            if (entry.generation != generation) {
+                entry.part.setCacheOrder(toOrder);
+                touch(entry);
             }
+            return true;
+        }
+    }
 
-            return find(activeCache, fakePart) != null;
+    /**
+     * Evict the passive parts, those not asked for since the last {@link #makeANewSet()}
+     */
+    public void removePassiveParts() {
+        synchronized (passiveActiveLock) {
+            while (eldest != null && eldest.generation != generation) {
+                evict(eldest);
+            }
         }
     }
 
     /**
-     * Return true if already contains the described PagePart
+     * Remove the thumbnails of the pages outside of the given range
      */
-    public boolean containsThumbnail(int page, RectF pageRelativeBounds) {
-        PagePart fakePart = new PagePart(page, null, pageRelativeBounds, true, 0);
+    public void removeThumbnailsOutside(int firstPage, int lastPage) {
         synchronized (thumbnails) {
-            for (PagePart part : thumbnails) {
-                if (part.equals(fakePart)) {
-                    return true;
+            if (thumbnailsPinned) {
+                return;
+            }
+            Iterator<PagePart> iterator = thumbnails.values().iterator();
+            while (iterator.hasNext()) {
+                PagePart thumbnail = iterator.next();
+                if (thumbnail.getPage() < firstPage || thumbnail.getPage() > lastPage) {
+                    iterator.remove();
+                    thumbnailsBytes -= getByteCount(thumbnail);
+                    bitmapPool.release(thumbnail.getRenderedBitmap());
                 }
             }
-            return false;
         }
     }
 
-    private void recycleBitmapsFromPart(PriorityQueue<PagePart> cache) {
-        PagePart part = cache.poll();
-        if (part != null) {
-            part.getRenderedBitmap().recycle();
+    /**
+     * Return true if already contains the thumbnail of the page
+     */
+    public boolean containsThumbnail(int page) {
+        synchronized (thumbnails) {
+            return thumbnails.containsKey(page);
         }
     }
 
     /**
-     * Add part if it doesn't exist, recycle bitmap otherwise
+     * Remove the parts and the thumbnails of a page, when they don't match its layout anymore
      */
-    private void addWithoutDuplicates(Collection<PagePart> collection, PagePart newPart) {
-        for (PagePart part : collection) {
-            if (part.equals(newPart)) {
-                newPart.getRenderedBitmap().recycle();
-                return;
+    public void removePageParts(int page) {
+        synchronized (passiveActiveLock) {
+            List<PagePart> pageParts = partsByPage.get(page);
+            while (pageParts != null && !pageParts.isEmpty()) {
+                evict(parts.get(pageParts.get(pageParts.size() - 1).getCacheKey()));
+            }
+            partsByPage.remove(page);
+        }
+        synchronized (thumbnails) {
+            PagePart thumbnail = thumbnails.remove(page);
+            if (thumbnail != null) {
+                thumbnailsBytes -= getByteCount(thumbnail);
+                bitmapPool.release(thumbnail.getRenderedBitmap());
             }
         }
-        collection.add(newPart);
     }
 
-    public List<PagePart> getPageParts() {
+    /**
+     * Remove every part, when the layout of the pages changed and their grids don't match the cached parts
+     * anymore. Thumbnails cover whole pages and are kept.
+     */
+    public void removeAllParts() {
         synchronized (passiveActiveLock) {
-            List<PagePart> parts = new ArrayList<>(passiveCache);
-            parts.addAll(activeCache);
-            return parts;
+            while (eldest != null) {
+                evict(eldest);
+            }
         }
     }
 
+    private void evict(Entry entry) {
+        unlink(entry);
+        parts.remove(entry.part.getCacheKey());
+        partsBytes -= entry.byteCount;
+        unindexPart(entry.part);
+        bitmapPool.release(entry.part.getRenderedBitmap());
+    }
+
+    /**
+     * Mark the entry as used by the current set, moving it to the youngest end of the list
+     */
+    private void touch(Entry entry) {
+        entry.generation = generation;
+        if (entry != youngest) {
+            unlink(entry);
+            linkYoungest(entry);
+        }
+    }
+
+    private void linkYoungest(Entry entry) {
+        entry.older = youngest;
+        entry.younger = null;
+        if (youngest != null) {
+            youngest.younger = entry;
+        } else {
+            eldest = entry;
+        }
+        youngest = entry;
+    }
+
+    private void unlink(Entry entry) {
+        if (entry.older != null) {
+            entry.older.younger = entry.younger;
+        } else {
+            eldest = entry.younger;
+        }
+        if (entry.younger != null) {
+            entry.younger.older = entry.older;
+        } else {
+            youngest = entry.older;
+        }
+        entry.older = null;
+        entry.younger = null;
+    }
+
+    /**
+     * Get the cached parts of a page, without copying them. Must only be used on the main thread,
+     * where the cache is modified, and not be modified.
+     *
+     * @return the parts of the page, null if there is none
+     */
+    @Nullable
+    public List<PagePart> getPageParts(int page) {
+        synchronized (passiveActiveLock) {
+            return partsByPage.get(page);
+        }
+    }
+
+    @Nullable
+    public PagePart getThumbnail(int page) {
+        synchronized (thumbnails) {
+            return thumbnails.get(page);
+        }
+    }
+
+    /**
+     * @return a copy of the cached thumbnails, in the order of their pages
+     */
     public List<PagePart> getThumbnails() {
+        List<PagePart> sortedThumbnails;
         synchronized (thumbnails) {
-            return thumbnails;
+            sortedThumbnails = new ArrayList<>(thumbnails.values());
         }
+        Collections.sort(sortedThumbnails, new Comparator<PagePart>() {
+            @Override
+            public int compare(PagePart first, PagePart second) {
+                return Integer.compare(first.getPage(), second.getPage());
+            }
+        });
+        return sortedThumbnails;
     }
 
     public void recycle() {
         synchronized (passiveActiveLock) {
-            for (PagePart part : passiveCache) {
-                part.getRenderedBitmap().recycle();
-            }
-            passiveCache.clear();
-            for (PagePart part : activeCache) {
-                part.getRenderedBitmap().recycle();
+            for (Entry entry : parts.values()) {
+                bitmapPool.release(entry.part.getRenderedBitmap());
             }
-            activeCache.clear();
+            parts.clear();
+            partsBytes = 0;
+            eldest = null;
+            youngest = null;
+            partsByPage.clear();
         }
         synchronized (thumbnails) {
-            for (PagePart part : thumbnails) {
-                part.getRenderedBitmap().recycle();
+            for (PagePart part : thumbnails.values()) {
+                bitmapPool.release(part.getRenderedBitmap());
             }
             thumbnails.clear();
+            thumbnailsBytes = 0;
         }
     }
 
-    class PagePartComparator implements Comparator<PagePart> {
-        @Override
-        public int compare(PagePart part1, PagePart part2) {
-            if (part1.getCacheOrder() == part2.getCacheOrder()) {
-                return 0;
-            }
-            return part1.getCacheOrder() > part2.getCacheOrder() ? 1 : -1;
+    /**
+     * Cached part, linked to the parts used just before and after it
+     */
+    private static final class Entry {
+
+        final PagePart part;
+
+        final long byteCount;
+
+        int generation;
+
+        Entry older;
+
+        Entry younger;
+
+        Entry(PagePart part, long byteCount, int generation) {
+            this.part = part;
+            this.byteCount = byteCount;
+            this.generation = generation;
         }
     }
 }
@@ -0,0 +1,251 @@
+/*
+ * Infomaniak android-pdf-viewer
+ * Copyright (C) 2024 Infomaniak Network SA
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.infomaniak.lib.pdfview;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.RectF;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Keeps rendered parts and thumbnails on disk, so that a document opened again
+ * shows its pages without rendering them through pdfium.
+ * <p>
+ * Each bitmap is stored in its own file as raw pixels after a small header. Reading maps the file in memory
+ * and copies the pixels straight into a pooled bitmap, without any decoding. Files are evicted in least
+ * recently used order once the total size exceeds the budget, the order survives restarts through
+ * the files modification date.
+ * <p>
+ * The cache is shared by every {@link PDFView} of the process.
+ */
+class DiskCache {
+
+    private static final String TAG = DiskCache.class.getSimpleName();
+
+    private static final String DIRECTORY = "pdfview-parts";
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final int MAGIC = 0x50444643; // "PDFC"
+    private static final int HEADER_SIZE = 4 * Integer.SIZE / Byte.SIZE;
+
+    private static DiskCache instance;
+
+    private final File directory;
+
+    /**
+     * Size of each cached file by name, in least recently used order, guarded by itself
+     */
+    private final LinkedHashMap<String, Long> entries = new LinkedHashMap<>(64, 0.75f, true);
+    private long size = 0;
+    private long maxSize;
+    private boolean initialized = false;
+
+    private DiskCache(File directory, long maxSize) {
+        this.directory = directory;
+        this.maxSize = maxSize;
+    }
+
+    static synchronized DiskCache getInstance(Context context, long maxSize) {
+        if (instance == null) {
+            instance = new DiskCache(new File(context.getCacheDir(), DIRECTORY), maxSize);
+        } else {
+            instance.setMaxSize(maxSize);
+        }
+        return instance;
+    }
+
+    void setMaxSize(long maxSize) {
+        synchronized (entries) {
+            this.maxSize = maxSize;
+            if (initialized) {
+                trimToSize();
+            }
+        }
+    }
+
+    /**
+     * Build the key of a rendered bitmap, every parameter changing its pixels is part of it
+     */
+    static String key(String fingerprint, int documentPage, boolean thumbnail, int zoomLevel, RectF bounds,
+                      int width, int height, boolean bestQuality, boolean annotationRendering) {
+        return fingerprint
+                + '-' + documentPage
+                + '-' + (thumbnail ? "t" : "l" + zoomLevel)
+                + '-' + Integer.toHexString(Float.floatToIntBits(bounds.left))
+                + '-' + Integer.toHexString(Float.floatToIntBits(bounds.top))
+                + '-' + Integer.toHexString(Float.floatToIntBits(bounds.right))
+                + '-' + Integer.toHexString(Float.floatToIntBits(bounds.bottom))
+                + '-' + width + 'x' + height
+                + '-' + (bestQuality ? 'q' : 'n') + (annotationRendering ? 'a' : 'n');
+    }
+
+    /**
+     * Fill the bitmap with the pixels cached for the key
+     *
+     * @return false if nothing matching the bitmap is cached for the key, the bitmap content is then undefined
+     */
+    boolean read(String key, Bitmap bitmap) {
+        synchronized (entries) {
+            initialize();
+            if (entries.get(key) == null) {
+                return false;
+            }
+        }
+
+        File file = new File(directory, key);
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r")) {
+            FileChannel channel = randomAccessFile.getChannel();
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.getInt() != MAGIC
+                    || buffer.getInt() != bitmap.getWidth()
+                    || buffer.getInt() != bitmap.getHeight()
+                    || buffer.getInt() != bitmap.getConfig().ordinal()
+                    || buffer.remaining() != bitmap.getByteCount()) {
+                remove(key);
+                return false;
+            }
+            bitmap.copyPixelsFromBuffer(buffer);
+        } catch (IOException | RuntimeException e) {
+            Log.w(TAG, "Cannot read cached bitmap", e);
+            remove(key);
+            return false;
+        }
+        file.setLastModified(System.currentTimeMillis());
+        return true;
+    }
+
+    /**
+     * Store the pixels of the bitmap for the key, replacing what may be cached for it
+     */
+    void write(String key, Bitmap bitmap) {
+        long length = HEADER_SIZE + bitmap.getByteCount();
+        synchronized (entries) {
+            initialize();
+            if (length > maxSize || entries.get(key) != null) {
+                return;
+            }
+        }
+
+        File temp = new File(directory, key + TEMP_SUFFIX + Thread.currentThread().getId());
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(temp, "rw")) {
+            MappedByteBuffer buffer = randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, length);
+            buffer.putInt(MAGIC)
+                    .putInt(bitmap.getWidth())
+                    .putInt(bitmap.getHeight())
+                    .putInt(bitmap.getConfig().ordinal());
+            bitmap.copyPixelsToBuffer(buffer);
+        } catch (IOException | RuntimeException e) {
+            Log.w(TAG, "Cannot cache bitmap", e);
+            temp.delete();
+            return;
+        }
+
+        synchronized (entries) {
+            if (!temp.renameTo(new File(directory, key))) {
+                temp.delete();
+                return;
+            }
+            Long previous = entries.put(key, length);
+            size += length - (previous != null ? previous : 0);
+            trimToSize();
+        }
+    }
+
+    /**
+     * Remove every cached file
+     */
+    void clear() {
+        synchronized (entries) {
+            File[] files = directory.listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    file.delete();
+                }
+            }
+            entries.clear();
+            size = 0;
+        }
+    }
+
+    private void remove(String key) {
+        synchronized (entries) {
+            Long length = entries.remove(key);
+            if (length != null) {
+                size -= length;
+            }
+            new File(directory, key).delete();
+        }
+    }
+
+    /**
+     * Index the files left by previous runs, must be called with the entries lock held
+     */
+    private void initialize() {
+        if (initialized) {
+            return;
+        }
+        initialized = true;
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            Log.w(TAG, "Cannot create " + directory);
+            return;
+        }
+
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File file1, File file2) {
+                return Long.compare(file1.lastModified(), file2.lastModified());
+            }
+        });
+        for (File file : files) {
+            if (file.getName().contains(TEMP_SUFFIX)) {
+                file.delete();
+                continue;
+            }
+            entries.put(file.getName(), file.length());
+            size += file.length();
+        }
+        trimToSize();
+    }
+
+    /**
+     * Must be called with the entries lock held
+     */
+    private void trimToSize() {
+        Iterator<Map.Entry<String, Long>> iterator = entries.entrySet().iterator();
+        while (size > maxSize && iterator.hasNext()) {
+            Map.Entry<String, Long> entry = iterator.next();
+            new File(directory, entry.getKey()).delete();
+            size -= entry.getValue();
+            iterator.remove();
+        }
+    }
+}
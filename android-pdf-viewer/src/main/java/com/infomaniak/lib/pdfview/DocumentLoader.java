@@ -0,0 +1,363 @@
+/*
+ * Infomaniak android-pdf-viewer
+ * Copyright (C) 2024 Infomaniak Network SA
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.infomaniak.lib.pdfview;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Rect;
+import android.os.Process;
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+
+import com.infomaniak.lib.pdfview.exception.PageRenderingException;
+import com.infomaniak.lib.pdfview.listener.OnLoadProgressListener.Stage;
+import com.infomaniak.lib.pdfview.source.DocumentSource;
+import com.infomaniak.lib.pdfview.util.Constants;
+import com.shockwave.pdfium.PdfDocument;
+import com.shockwave.pdfium.PdfiumCore;
+import com.shockwave.pdfium.util.Size;
+import com.shockwave.pdfium.util.SizeF;
+
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Opens a document and lays out its pages in the background, reporting each stage to {@link PDFView}
+ * on the main thread. A cancelled loading stops at the next stage and closes what it already opened,
+ * so that a replaced document doesn't keep competing with the new one.
+ * <p>
+ * Once the document is handed over, the first displayed page is rendered at the size of the view while
+ * the renderer starts, and posted to the view as a provisional frame shown until its parts are rendered.
+ * <p>
+ * Created, started and cancelled on the main thread.
+ */
+class DocumentLoader implements Runnable {
+
+    private static final String TAG = DocumentLoader.class.getSimpleName();
+
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    private static final ThreadPoolExecutor EXECUTOR = new ThreadPoolExecutor(
+            Constants.LOADER_THREADS,
+            Constants.LOADER_THREADS,
+            KEEP_ALIVE_SECONDS,
+            TimeUnit.SECONDS,
+            new LinkedBlockingQueue<Runnable>(),
+            new LoaderThreadFactory()
+    );
+
+    static {
+        EXECUTOR.allowCoreThreadTimeOut(true);
+    }
+
+    private final WeakReference<PDFView> pdfViewReference;
+    private final Context context;
+    private final PdfiumCore pdfiumCore;
+    private final DocumentSource docSource;
+    private final String password;
+    private final int[] userPages;
+    private final DisplayOptions displayOptions;
+    private final int defaultPage;
+    private final BitmapPool bitmapPool;
+    private final boolean bestQuality;
+    private final boolean annotationRendering;
+
+    private volatile boolean cancelled = false;
+    private Future<?> future;
+
+    DocumentLoader(DocumentSource docSource, String password, int[] userPages, PDFView pdfView, PdfiumCore pdfiumCore) {
+        this.pdfViewReference = new WeakReference<>(pdfView);
+        this.context = pdfView.getContext().getApplicationContext();
+        this.pdfiumCore = pdfiumCore;
+        this.docSource = docSource;
+        this.password = password;
+        this.userPages = userPages;
+        this.defaultPage = pdfView.getDefaultPage();
+        this.bitmapPool = pdfView.bitmapPool;
+        this.bestQuality = pdfView.isBestQuality();
+        this.annotationRendering = pdfView.isAnnotationRendering();
+
+        // The options are read from the view now, as it mustn't be touched from the loading thread
+        PDFSpacing pdfSpacing = new PDFSpacing(
+                pdfView.getPageSeparatorSpacing(),
+                pdfView.getStartSpacing(),
+                pdfView.getEndSpacing(),
+                pdfView.isAutoSpacingEnabled()
+        );
+        this.displayOptions = new DisplayOptions(
+                pdfView.isSwipeVertical(),
+                pdfSpacing,
+                pdfView.isFitEachPage(),
+                new Size(pdfView.getWidth(), pdfView.getHeight()),
+                pdfView.getPageFitPolicy());
+    }
+
+    void start() {
+        future = EXECUTOR.submit(this);
+    }
+
+    /**
+     * Stop the loading at its next stage. Nothing is reported to the view afterwards.
+     */
+    void cancel() {
+        cancelled = true;
+        if (future != null) {
+            // Removes the loading from the queue if it hasn't started yet
+            future.cancel(false);
+        }
+    }
+
+    @Override
+    public void run() {
+        PdfFile loadedFile = load();
+        if (loadedFile == null) {
+            return;
+        }
+        try {
+            postProvisionalFrame(loadedFile, renderProvisionalFrame(loadedFile));
+        } catch (RuntimeException e) {
+            // Only an optimization, the page is rendered as usual anyway
+            Log.w(TAG, "Cannot render the provisional frame", e);
+        }
+    }
+
+    /**
+     * @return the document handed over to the view, null if the loading failed or has been cancelled
+     */
+    @Nullable
+    private PdfFile load() {
+        PdfDocument pdfDocument = null;
+        PdfFile pdfFile = null;
+        try {
+            if (cancelled) {
+                return null;
+            }
+            pdfDocument = docSource.createDocument(context, pdfiumCore, password);
+            if (cancelled) {
+                return null;
+            }
+            postProgress(Stage.OPENED, 0);
+
+            int pagesCount = userPages != null ? userPages.length : pdfiumCore.getPageCount(pdfDocument);
+            postProgress(Stage.PAGES_COUNTED, pagesCount);
+            if (cancelled) {
+                return null;
+            }
+
+            pdfFile = new PdfFile(
+                    pdfiumCore,
+                    pdfDocument,
+                    userPages,
+                    displayOptions,
+                    getFingerprint(),
+                    new LayoutIndex(context),
+                    defaultPage);
+            pdfFile.setOwnsDocument(docSource.closesDocument());
+            if (cancelled) {
+                return null;
+            }
+            postProgress(Stage.LAID_OUT, pdfFile.getPagesCount());
+            postComplete(pdfFile);
+            // Handed over, disposed on the main thread from now on
+            PdfFile loadedFile = pdfFile;
+            pdfDocument = null;
+            pdfFile = null;
+            return loadedFile;
+        } catch (Throwable t) {
+            // What has been opened before the failure isn't handed over to the view
+            discard(pdfDocument, pdfFile);
+            pdfDocument = null;
+            pdfFile = null;
+            postError(t);
+            return null;
+        } finally {
+            if (cancelled) {
+                discard(pdfDocument, pdfFile);
+            }
+        }
+    }
+
+    /**
+     * Render the first displayed page, with at most as many pixels as the view
+     *
+     * @return the rendered page, null if it can't be rendered now
+     */
+    @Nullable
+    private Bitmap renderProvisionalFrame(PdfFile pdfFile) {
+        if (cancelled) {
+            return null;
+        }
+        int page = pdfFile.determineValidPageNumberFrom(defaultPage);
+        SizeF pageSize = pdfFile.getPageSize(page);
+        Size viewSize = displayOptions.getViewSize();
+        float scale = Math.min(1f, (float) Math.sqrt(
+                (float) viewSize.getWidth() * viewSize.getHeight() / (pageSize.getWidth() * pageSize.getHeight())));
+        int width = Math.round(pageSize.getWidth() * scale);
+        int height = Math.round(pageSize.getHeight() * scale);
+        if (width <= 0 || height <= 0) {
+            return null;
+        }
+
+        try {
+            pdfFile.openPage(page);
+        } catch (final PageRenderingException e) {
+            // The page is marked as failed, the error wouldn't be reported by the renderer
+            PDFView pdfView = pdfViewReference.get();
+            if (pdfView != null) {
+                pdfView.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        PDFView pdfView = pdfViewReference.get();
+                        if (pdfView != null && !cancelled) {
+                            pdfView.onPageError(e);
+                        }
+                    }
+                });
+            }
+            return null;
+        }
+        if (cancelled || pdfFile.pageHasError(page)) {
+            return null;
+        }
+
+        Bitmap bitmap;
+        try {
+            bitmap = bitmapPool.acquire(width, height, bestQuality ? Bitmap.Config.ARGB_8888 : Bitmap.Config.RGB_565);
+        } catch (OutOfMemoryError e) {
+            Log.w(TAG, "Cannot create the provisional frame", e);
+            return null;
+        }
+        pdfFile.renderPageBitmap(bitmap, page, new Rect(0, 0, width, height), annotationRendering);
+        return bitmap;
+    }
+
+    private void discard(PdfDocument pdfDocument, PdfFile pdfFile) {
+        if (pdfFile != null) {
+            pdfFile.dispose();
+        } else if (pdfDocument != null && docSource.closesDocument()) {
+            pdfiumCore.closeDocument(pdfDocument);
+        }
+    }
+
+    private String getFingerprint() {
+        try {
+            return docSource.getFingerprint(context);
+        } catch (IOException e) {
+            Log.w(TAG, "Cannot fingerprint the document", e);
+            return null;
+        }
+    }
+
+    private void postProgress(final Stage stage, final int pagesCount) {
+        PDFView pdfView = pdfViewReference.get();
+        if (pdfView == null) {
+            cancelled = true;
+            return;
+        }
+        pdfView.post(new Runnable() {
+            @Override
+            public void run() {
+                PDFView pdfView = pdfViewReference.get();
+                if (pdfView != null && !cancelled) {
+                    pdfView.callbacks.callOnLoadProgress(stage, pagesCount);
+                }
+            }
+        });
+    }
+
+    private void postComplete(final PdfFile pdfFile) {
+        PDFView pdfView = pdfViewReference.get();
+        if (pdfView == null) {
+            cancelled = true;
+            pdfFile.dispose();
+            return;
+        }
+        pdfView.post(new Runnable() {
+            @Override
+            public void run() {
+                PDFView pdfView = pdfViewReference.get();
+                if (pdfView == null || cancelled) {
+                    // Cancelled after the loading was over, the document is not wanted anymore
+                    pdfFile.dispose();
+                    return;
+                }
+                pdfView.loadComplete(pdfFile);
+            }
+        });
+    }
+
+    private void postProvisionalFrame(final PdfFile pdfFile, @Nullable final Bitmap provisionalFrame) {
+        if (provisionalFrame == null) {
+            return;
+        }
+        PDFView pdfView = pdfViewReference.get();
+        if (pdfView == null || cancelled) {
+            bitmapPool.release(provisionalFrame);
+            return;
+        }
+        pdfView.post(new Runnable() {
+            @Override
+            public void run() {
+                PDFView pdfView = pdfViewReference.get();
+                if (pdfView == null || cancelled) {
+                    bitmapPool.release(provisionalFrame);
+                    return;
+                }
+                pdfView.onProvisionalFrameRendered(pdfFile, provisionalFrame);
+            }
+        });
+    }
+
+    private void postError(final Throwable t) {
+        PDFView pdfView = pdfViewReference.get();
+        if (pdfView == null || cancelled) {
+            return;
+        }
+        pdfView.post(new Runnable() {
+            @Override
+            public void run() {
+                PDFView pdfView = pdfViewReference.get();
+                if (pdfView != null && !cancelled) {
+                    pdfView.loadError(t);
+                }
+            }
+        });
+    }
+
+    private static class LoaderThreadFactory implements ThreadFactory {
+        private final AtomicInteger threadNumber = new AtomicInteger(1);
+
+        @Override
+        public Thread newThread(final Runnable runnable) {
+            return new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Process.setThreadPriority(Process.THREAD_PRIORITY_DEFAULT);
+                    runnable.run();
+                }
+            }, "PDF loader #" + threadNumber.getAndIncrement());
+        }
+    }
+}
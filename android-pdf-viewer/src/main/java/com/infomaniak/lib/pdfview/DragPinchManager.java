@@ -33,7 +33,6 @@ import com.infomaniak.lib.pdfview.model.LinkTapEvent;
 import com.infomaniak.lib.pdfview.scroll.ScrollHandle;
 import com.infomaniak.lib.pdfview.util.SnapEdge;
 import com.infomaniak.lib.pdfview.util.TouchUtils;
-import com.shockwave.pdfium.PdfDocument;
 import com.shockwave.pdfium.util.SizeF;
 
 /**
@@ -59,6 +58,7 @@ class DragPinchManager implements
 
     private boolean scrolling = false;
     private boolean scaling = false;
+    private int scalingZoomLevel;
     private boolean enabled = false;
     private boolean hasTouchPriority = false;
     private float startingScrollingXPosition = STARTING_TOUCH_POSITION_NOT_INITIALIZED;
@@ -113,14 +113,17 @@ class DragPinchManager implements
 
     private boolean checkLinkTapped(float x, float y) {
         PdfFile pdfFile = pdfView.pdfFile;
-        if (pdfFile == null) {
+        LinkIndex linkIndex = pdfView.linkIndex;
+        if (pdfFile == null || linkIndex == null) {
             return false;
         }
         float mappedX = -pdfView.getCurrentXOffset() + x;
         float mappedY = -pdfView.getCurrentYOffset() + y;
         int page = pdfFile.getPageAtOffset(pdfView.isSwipeVertical() ? mappedY : mappedX, pdfView.getZoom());
         SizeF pageSize = pdfFile.getScaledPageSize(page, pdfView.getZoom());
-        int pageX, pageY;
+        float pageWidth = pageSize.getWidth();
+        float pageHeight = pageSize.getHeight();
+        float pageX, pageY;
         if (pdfView.isSwipeVertical()) {
             pageX = (int) pdfFile.getSecondaryPageOffset(page, pdfView.getZoom());
             pageY = (int) pdfFile.getPageOffset(page, pdfView.getZoom());
@@ -128,16 +131,25 @@ class DragPinchManager implements
             pageY = (int) pdfFile.getSecondaryPageOffset(page, pdfView.getZoom());
             pageX = (int) pdfFile.getPageOffset(page, pdfView.getZoom());
         }
-        for (PdfDocument.Link link : pdfFile.getPageLinks(page)) {
-            RectF mapped = pdfFile.mapRectToDevice(page, pageX, pageY, (int) pageSize.getWidth(), (int) pageSize.getHeight(),
-                    link.getBounds());
-            mapped.sort();
-            if (mapped.contains(mappedX, mappedY)) {
-                pdfView.callbacks.callLinkHandler(new LinkTapEvent(x, y, mappedX, mappedY, mapped, link));
-                return true;
-            }
+
+        // Links are hit-tested relative to the page size, without going through pdfium
+        LinkIndex.PageLinks pageLinks = linkIndex.getPageLinks(page);
+        if (pageLinks == null) {
+            return false;
         }
-        return false;
+        int index = pageLinks.find((mappedX - pageX) / pageWidth, (mappedY - pageY) / pageHeight);
+        if (index < 0) {
+            return false;
+        }
+        RectF bounds = pageLinks.getBounds(index);
+        RectF mapped = new RectF(
+                pageX + bounds.left * pageWidth,
+                pageY + bounds.top * pageHeight,
+                pageX + bounds.right * pageWidth,
+                pageY + bounds.bottom * pageHeight
+        );
+        pdfView.callbacks.callLinkHandler(new LinkTapEvent(x, y, mappedX, mappedY, mapped, pageLinks.getLink(index)));
+        return true;
     }
 
     private void startPageFling(MotionEvent downEvent, MotionEvent ev, float velocityX,
@@ -189,6 +201,7 @@ class DragPinchManager implements
     @Override
     public boolean onDown(@NonNull MotionEvent e) {
         animationManager.stopFling();
+        pdfView.activateSharedCache();
         return true;
     }
 
@@ -208,7 +221,7 @@ class DragPinchManager implements
         if (pdfView.isZooming() || pdfView.isSwipeEnabled()) {
             pdfView.moveRelativeTo(-distanceX, -distanceY);
         }
-        if (!scaling || pdfView.doRenderDuringScale()) {
+        if (!scaling) {
             pdfView.loadPageByOffset();
         }
         return true;
@@ -296,18 +309,29 @@ class DragPinchManager implements
             dr = maxZoom / pdfView.getZoom();
         }
         pdfView.zoomCenteredRelativeTo(dr, new PointF(detector.getFocusX(), detector.getFocusY()));
+        // Existing parts are drawn scaled, only render again when the gesture crosses a zoom level.
+        // Parts rendered while a snapshot is drawn wouldn't be shown, they're loaded at the end of the gesture.
+        int zoomLevel = PagesLoader.getZoomLevel(pdfView.getZoom());
+        if (pdfView.doRenderDuringScale() && !pdfView.hasPinchSnapshot() && zoomLevel != scalingZoomLevel) {
+            scalingZoomLevel = zoomLevel;
+            pdfView.loadPages();
+        }
         return true;
     }
 
     @Override
     public boolean onScaleBegin(@NonNull ScaleGestureDetector detector) {
         scaling = true;
+        scalingZoomLevel = PagesLoader.getZoomLevel(pdfView.getZoom());
+        pdfView.startPinch();
         return true;
     }
 
     @Override
     public void onScaleEnd(@NonNull ScaleGestureDetector detector) {
-        pdfView.loadPages();
+        pdfView.endPinch();
+        // Parts already cached or queued for the final zoom are kept, only the missing ones are rendered
+        pdfView.loadPageByOffset();
         hideHandle();
         scaling = false;
     }
@@ -0,0 +1,148 @@
+/*
+ * Infomaniak android-pdf-viewer
+ * Copyright (C) 2024 Infomaniak Network SA
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.infomaniak.lib.pdfview;
+
+import android.content.Context;
+import android.util.Log;
+
+import com.infomaniak.lib.pdfview.util.Constants;
+import com.shockwave.pdfium.util.Size;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Stores the original size of the pages of the documents already opened, so that they don't have to be
+ * read from pdfium page by page the next time the same document is opened.
+ * <p>
+ * Each document has its own small binary file named after its fingerprint: a header, the number of pages,
+ * then the width and height of each page, 0 when unknown. Only the most recently used files are kept.
+ */
+class LayoutIndex {
+
+    private static final String TAG = LayoutIndex.class.getSimpleName();
+
+    private static final String DIRECTORY = "pdfview-layout";
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final int MAGIC = 0x5044464C; // "PDFL"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 3 * Integer.SIZE / Byte.SIZE;
+    private static final int PAGE_SIZE = 2 * Integer.SIZE / Byte.SIZE;
+
+    private final File directory;
+
+    LayoutIndex(Context context) {
+        this.directory = new File(context.getCacheDir(), DIRECTORY);
+    }
+
+    /**
+     * Read the sizes stored for the document in a single read
+     *
+     * @return the original size of each document page, null for unknown pages,
+     * or null if nothing valid is stored for the document
+     */
+    Size[] read(String fingerprint, int documentPagesCount) {
+        File file = new File(directory, fingerprint);
+        if (!file.isFile()) {
+            return null;
+        }
+
+        byte[] bytes;
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r")) {
+            bytes = new byte[(int) randomAccessFile.length()];
+            randomAccessFile.readFully(bytes);
+        } catch (IOException e) {
+            Log.w(TAG, "Cannot read layout index", e);
+            return null;
+        }
+
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        if (bytes.length != HEADER_SIZE + documentPagesCount * PAGE_SIZE
+                || buffer.getInt() != MAGIC
+                || buffer.getInt() != VERSION
+                || buffer.getInt() != documentPagesCount) {
+            file.delete();
+            return null;
+        }
+
+        Size[] sizes = new Size[documentPagesCount];
+        for (int i = 0; i < documentPagesCount; i++) {
+            int width = buffer.getInt();
+            int height = buffer.getInt();
+            if (width > 0 && height > 0) {
+                sizes[i] = new Size(width, height);
+            }
+        }
+        file.setLastModified(System.currentTimeMillis());
+        return sizes;
+    }
+
+    /**
+     * Store the sizes of the document pages, null for unknown pages
+     */
+    void write(String fingerprint, Size[] sizes) {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            Log.w(TAG, "Cannot create " + directory);
+            return;
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + sizes.length * PAGE_SIZE);
+        buffer.putInt(MAGIC).putInt(VERSION).putInt(sizes.length);
+        for (Size size : sizes) {
+            buffer.putInt(size != null ? size.getWidth() : 0).putInt(size != null ? size.getHeight() : 0);
+        }
+
+        File temp = new File(directory, fingerprint + TEMP_SUFFIX + Thread.currentThread().getId());
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(temp, "rw")) {
+            randomAccessFile.setLength(0);
+            randomAccessFile.write(buffer.array());
+        } catch (IOException e) {
+            Log.w(TAG, "Cannot write layout index", e);
+            temp.delete();
+            return;
+        }
+        if (!temp.renameTo(new File(directory, fingerprint))) {
+            temp.delete();
+            return;
+        }
+        trim();
+    }
+
+    /**
+     * Only keep the most recently used files
+     */
+    private void trim() {
+        File[] files = directory.listFiles();
+        if (files == null || files.length <= Constants.Cache.LAYOUT_INDEX_COUNT) {
+            return;
+        }
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File file1, File file2) {
+                return Long.compare(file2.lastModified(), file1.lastModified());
+            }
+        });
+        for (int i = Constants.Cache.LAYOUT_INDEX_COUNT; i < files.length; i++) {
+            files[i].delete();
+        }
+    }
+}
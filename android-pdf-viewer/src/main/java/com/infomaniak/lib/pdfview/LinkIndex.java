@@ -0,0 +1,213 @@
+/*
+ * Infomaniak android-pdf-viewer
+ * Copyright (C) 2024 Infomaniak Network SA
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.infomaniak.lib.pdfview;
+
+import android.graphics.RectF;
+import android.util.LruCache;
+import android.util.SparseBooleanArray;
+
+import androidx.annotation.Nullable;
+
+import com.infomaniak.lib.pdfview.util.BackgroundExecutor;
+import com.infomaniak.lib.pdfview.util.Constants;
+import com.shockwave.pdfium.PdfDocument;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Keeps the links of the pages of a document, so that a tap is hit-tested against them without any call
+ * to pdfium. Links of the visible pages are read in the background, their bounds stored relative to the
+ * page size (between 0 and 1) and indexed in a grid of cells covering the page.
+ * <p>
+ * Must be used on the main thread.
+ */
+class LinkIndex {
+
+    /**
+     * Size of the device area the links are mapped to before being made relative to the page size
+     */
+    private static final int MAPPING_SIZE = 10000;
+
+    /**
+     * Number of rows and columns of the grid indexing the links of a page
+     */
+    private static final int GRID_SIZE = 8;
+
+    private final WeakReference<PDFView> pdfViewReference;
+    private final PdfFile pdfFile;
+    private final LruCache<Integer, PageLinks> pages = new LruCache<>(Constants.Cache.LINK_INDEX_PAGES);
+    private final SparseBooleanArray loadingPages = new SparseBooleanArray();
+    private volatile boolean cancelled = false;
+
+    LinkIndex(PDFView pdfView, PdfFile pdfFile) {
+        this.pdfViewReference = new WeakReference<>(pdfView);
+        this.pdfFile = pdfFile;
+    }
+
+    /**
+     * Read the links of the page in the background, if not already done
+     */
+    void loadPage(final int page) {
+        if (pages.get(page) != null || loadingPages.get(page)) {
+            return;
+        }
+        loadingPages.put(page, true);
+        BackgroundExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (cancelled) {
+                    return;
+                }
+                final PageLinks pageLinks = readPageLinks(pdfFile, page);
+                PDFView pdfView = pdfViewReference.get();
+                if (pageLinks == null || pdfView == null) {
+                    return;
+                }
+                pdfView.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        loadingPages.delete(page);
+                        if (!cancelled) {
+                            pages.put(page, pageLinks);
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Get the links of the page, read right away if they haven't been read in the background yet
+     */
+    @Nullable
+    PageLinks getPageLinks(int page) {
+        PageLinks pageLinks = pages.get(page);
+        if (pageLinks == null) {
+            pageLinks = readPageLinks(pdfFile, page);
+            if (pageLinks != null) {
+                pages.put(page, pageLinks);
+            }
+        }
+        return pageLinks;
+    }
+
+    void cancel() {
+        cancelled = true;
+        pages.evictAll();
+    }
+
+    /**
+     * @return the links of the page, null if the index has been cancelled meanwhile
+     */
+    @Nullable
+    private PageLinks readPageLinks(PdfFile pdfFile, int page) {
+        if (cancelled) {
+            return null;
+        }
+        List<PdfDocument.Link> links = pdfFile.getPageLinks(page);
+        RectF[] bounds = new RectF[links.size()];
+        for (int i = 0; i < bounds.length; i++) {
+            if (cancelled) {
+                return null;
+            }
+            // Mapping through pdfium takes the rotation of the page into account
+            RectF mapped = pdfFile.mapRectToDevice(page, 0, 0, MAPPING_SIZE, MAPPING_SIZE, links.get(i).getBounds());
+            mapped.sort();
+            bounds[i] = new RectF(
+                    mapped.left / MAPPING_SIZE,
+                    mapped.top / MAPPING_SIZE,
+                    mapped.right / MAPPING_SIZE,
+                    mapped.bottom / MAPPING_SIZE
+            );
+        }
+        return new PageLinks(links, bounds);
+    }
+
+    /**
+     * Links of a page, with their bounds relative to the page size
+     */
+    static class PageLinks {
+
+        private final List<PdfDocument.Link> links;
+        private final RectF[] bounds;
+
+        /**
+         * Indexes of the links intersecting each cell of the grid, row by row
+         */
+        private final int[][] cells = new int[GRID_SIZE * GRID_SIZE][];
+
+        PageLinks(List<PdfDocument.Link> links, RectF[] bounds) {
+            this.links = links;
+            this.bounds = bounds;
+
+            List<List<Integer>> cellLinks = new ArrayList<>(cells.length);
+            for (int i = 0; i < cells.length; i++) {
+                cellLinks.add(new ArrayList<Integer>());
+            }
+            for (int i = 0; i < bounds.length; i++) {
+                int firstCol = getCell(bounds[i].left);
+                int lastCol = getCell(bounds[i].right);
+                int firstRow = getCell(bounds[i].top);
+                int lastRow = getCell(bounds[i].bottom);
+                for (int row = firstRow; row <= lastRow; row++) {
+                    for (int col = firstCol; col <= lastCol; col++) {
+                        cellLinks.get(row * GRID_SIZE + col).add(i);
+                    }
+                }
+            }
+            for (int i = 0; i < cells.length; i++) {
+                List<Integer> indexes = cellLinks.get(i);
+                cells[i] = new int[indexes.size()];
+                for (int j = 0; j < cells[i].length; j++) {
+                    cells[i][j] = indexes.get(j);
+                }
+            }
+        }
+
+        private static int getCell(float position) {
+            return Math.max(0, Math.min(GRID_SIZE - 1, (int) (position * GRID_SIZE)));
+        }
+
+        /**
+         * Find the link at the given position, relative to the page size
+         *
+         * @return the index of the link, -1 if there is none
+         */
+        int find(float x, float y) {
+            if (x < 0 || x > 1 || y < 0 || y > 1) {
+                return -1;
+            }
+            for (int index : cells[getCell(y) * GRID_SIZE + getCell(x)]) {
+                if (bounds[index].contains(x, y)) {
+                    return index;
+                }
+            }
+            return -1;
+        }
+
+        PdfDocument.Link getLink(int index) {
+            return links.get(index);
+        }
+
+        RectF getBounds(int index) {
+            return bounds[index];
+        }
+    }
+}
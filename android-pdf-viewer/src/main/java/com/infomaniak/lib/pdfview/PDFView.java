@@ -19,7 +19,9 @@
 
 package com.infomaniak.lib.pdfview;
 
+import android.content.ComponentCallbacks2;
 import android.content.Context;
+import android.content.res.Configuration;
 import android.graphics.Bitmap;
 import android.graphics.Canvas;
 import android.graphics.Color;
@@ -33,15 +35,14 @@ import android.graphics.Rect;
 import android.graphics.RectF;
 import android.graphics.drawable.Drawable;
 import android.net.Uri;
-import android.os.AsyncTask;
-import android.os.Build;
-import android.os.HandlerThread;
+import android.print.PrintDocumentAdapter;
 import android.util.AttributeSet;
 import android.util.Log;
 import android.view.MotionEvent;
 import android.widget.RelativeLayout;
 
 import androidx.annotation.FloatRange;
+import androidx.annotation.Nullable;
 
 import com.infomaniak.lib.pdfview.exception.PageRenderingException;
 import com.infomaniak.lib.pdfview.link.DefaultLinkHandler;
@@ -53,21 +54,30 @@ import com.infomaniak.lib.pdfview.listener.OnDoubleTapListener;
 import com.infomaniak.lib.pdfview.listener.OnDrawListener;
 import com.infomaniak.lib.pdfview.listener.OnErrorListener;
 import com.infomaniak.lib.pdfview.listener.OnLoadCompleteListener;
+import com.infomaniak.lib.pdfview.listener.OnLoadProgressListener;
 import com.infomaniak.lib.pdfview.listener.OnLongPressListener;
 import com.infomaniak.lib.pdfview.listener.OnPageChangeListener;
 import com.infomaniak.lib.pdfview.listener.OnPageErrorListener;
 import com.infomaniak.lib.pdfview.listener.OnPageScrollListener;
 import com.infomaniak.lib.pdfview.listener.OnReadyForPrintingListener;
 import com.infomaniak.lib.pdfview.listener.OnRenderListener;
+import com.infomaniak.lib.pdfview.listener.OnSearchListener;
 import com.infomaniak.lib.pdfview.listener.OnTapListener;
 import com.infomaniak.lib.pdfview.model.PagePart;
+import com.infomaniak.lib.pdfview.print.PassThroughPrintDocumentAdapter;
+import com.infomaniak.lib.pdfview.print.PdfPrintDocumentAdapter;
+import com.infomaniak.lib.pdfview.print.PrintProducer;
+import com.infomaniak.lib.pdfview.print.PrintQualityListener;
 import com.infomaniak.lib.pdfview.scroll.ScrollHandle;
+import com.infomaniak.lib.pdfview.search.TextExtractor;
 import com.infomaniak.lib.pdfview.source.AssetSource;
 import com.infomaniak.lib.pdfview.source.ByteArraySource;
 import com.infomaniak.lib.pdfview.source.DocumentSource;
 import com.infomaniak.lib.pdfview.source.FileSource;
 import com.infomaniak.lib.pdfview.source.InputStreamSource;
+import com.infomaniak.lib.pdfview.source.PdfDocumentSource;
 import com.infomaniak.lib.pdfview.source.UriSource;
+import com.infomaniak.lib.pdfview.util.BackgroundExecutor;
 import com.infomaniak.lib.pdfview.util.Constants;
 import com.infomaniak.lib.pdfview.util.FitPolicy;
 import com.infomaniak.lib.pdfview.util.MathUtils;
@@ -125,6 +135,11 @@ public class PDFView extends RelativeLayout {
 
     private ScrollDir scrollDir = ScrollDir.NONE;
 
+    /**
+     * Bitmaps evicted from the cache go back to the pool, to be reused by the next renderings
+     */
+    BitmapPool bitmapPool;
+
     /**
      * Rendered parts go to the cache manager
      */
@@ -171,25 +186,112 @@ public class PDFView extends RelativeLayout {
      */
     private boolean recycled = true;
 
+    /**
+     * True while the thumbnails of all the pages are rendered for printing, until they are all cached
+     */
+    private boolean loadingPagesForPrinting = false;
+
     /**
      * Current state of the view
      */
     private State state = State.DEFAULT;
 
     /**
-     * Async task used during the loading phase to decode a PDF document
+     * Opens the document and lays out its pages during the loading phase
+     */
+    private DocumentLoader documentLoader;
+
+    /**
+     * Reads in the background the size of the pages only estimated when the document has been opened
+     */
+    private PageSizesLoader pageSizesLoader;
+
+    /**
+     * Stores the text of the document in the text index, null if it's disabled or not needed
      */
-    private DecodingAsyncTask decodingAsyncTask;
+    private TextIndexer textIndexer;
 
     /**
-     * The thread {@link #renderingHandler} will run on
+     * Links of the pages, read in the background and hit-tested when tapping
      */
-    private HandlerThread renderingHandlerThread;
+    LinkIndex linkIndex;
+
     /**
-     * Handler always waiting in the background and rendering tasks
+     * Pool of rendering threads always waiting in the background for rendering tasks
      */
     RenderingHandler renderingHandler;
 
+    /**
+     * Maximum number of pages kept opened in pdfium at once
+     */
+    private int maxOpenedPages = Constants.Cache.MAX_OPENED_PAGES;
+
+    /**
+     * Maximum size in bytes of the rendered parts kept on disk, 0 to disable the disk cache
+     */
+    private long diskCacheSize = 0;
+
+    /**
+     * Maximum size in bytes of the rendered parts kept in memory, 0 to derive it from the device memory
+     */
+    private long partsCacheSize = 0;
+
+    /**
+     * Maximum size in bytes of the thumbnails kept in memory, 0 to derive it from the device memory
+     */
+    private long thumbnailsCacheSize = 0;
+
+    /**
+     * Source of the loaded document and whether it has been opened with a password, to print it as it is
+     */
+    private DocumentSource documentSource;
+    private boolean passwordProtected;
+
+    /**
+     * Provides the text of the pages to search them, null if searching isn't possible
+     */
+    private TextExtractor textExtractor;
+
+    /**
+     * True to store the text of the documents in the text index, to search them again without extracting it
+     */
+    private boolean textIndex = false;
+
+    /**
+     * Searches the pages of the document, created with the first search
+     */
+    private SearchEngine searchEngine;
+
+    /**
+     * Coordinator sharing its memory budget with the other views, null if this view has its own budget
+     */
+    private CacheCoordinator cacheCoordinator;
+
+    /**
+     * Releases memory when the system asks for it, registered while the view is attached
+     */
+    private final ComponentCallbacks2 trimMemoryCallbacks = new ComponentCallbacks2() {
+        @Override
+        public void onTrimMemory(int level) {
+            trimMemory(level);
+        }
+
+        @Override
+        public void onConfigurationChanged(Configuration newConfig) {
+        }
+
+        @Override
+        public void onLowMemory() {
+            trimMemory(ComponentCallbacks2.TRIM_MEMORY_COMPLETE);
+        }
+    };
+
+    /**
+     * Disk cache of the rendered parts of the current document, null if disabled or if the document
+     * can't be identified
+     */
+    DiskCache diskCache;
+
     private PagesLoader pagesLoader;
 
     Callbacks callbacks = new Callbacks();
@@ -269,13 +371,27 @@ public class PDFView extends RelativeLayout {
     private boolean annotationRendering = false;
 
     /**
-     * True if the view should render during scaling<br/>
+     * True if the view should render the parts of a new zoom level during scaling,
+     * existing parts are drawn scaled in any case<br/>
      * Can not be forced on older API versions (< Build.VERSION_CODES.KITKAT) as the GestureDetector does
      * not detect scrolling while scaling.<br/>
      * False otherwise
      */
     private boolean renderDuringScale = false;
 
+    /**
+     * Zoom at the beginning of the current pinch gesture, 0 when not pinching
+     */
+    private float pinchStartZoom = 0;
+
+    /**
+     * Pages as they were drawn when the current pinch gesture started, scaled to the current zoom
+     * while pinching instead of drawing every part again. Null when not pinching.
+     */
+    private Bitmap pinchSnapshot;
+    private float pinchStartXOffset;
+    private float pinchStartYOffset;
+
     /**
      * Antialiasing and bitmap filtering
      */
@@ -309,9 +425,10 @@ public class PDFView extends RelativeLayout {
     private boolean pageFling = true;
 
     /**
-     * Pages numbers used when calling onDrawAllListener
+     * Rects reused to draw each part, so that drawing allocates nothing
      */
-    private List<Integer> onDrawPagesNums = new ArrayList<>(10);
+    private final Rect drawSrcRect = new Rect();
+    private final RectF drawDstRect = new RectF();
 
     /**
      * Holds info whether view has been added to layout and has width and height
@@ -333,7 +450,10 @@ public class PDFView extends RelativeLayout {
             return;
         }
 
-        cacheManager = new CacheManager();
+        bitmapPool = new BitmapPool();
+        cacheManager = new CacheManager(bitmapPool,
+                CacheManager.getDefaultPartsCacheSize(context, 0, 0),
+                CacheManager.getDefaultThumbnailsCacheSize(context));
         animationManager = new AnimationManager(this);
         dragPinchManager = new DragPinchManager(this, animationManager);
         pagesLoader = new PagesLoader(this);
@@ -365,9 +485,11 @@ public class PDFView extends RelativeLayout {
         }
 
         recycled = false;
+        documentSource = docSource;
+        passwordProtected = password != null && !password.isEmpty();
         // Start decoding document
-        decodingAsyncTask = new DecodingAsyncTask(docSource, password, userPages, this, pdfiumCore);
-        decodingAsyncTask.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+        documentLoader = new DocumentLoader(docSource, password, userPages, this, pdfiumCore);
+        documentLoader.start();
     }
 
     public boolean isShown() {
@@ -517,12 +639,25 @@ public class PDFView extends RelativeLayout {
 
         // Stop tasks
         if (renderingHandler != null) {
-            renderingHandler.stop();
-            renderingHandler.removeMessages(RenderingHandler.MSG_RENDER_TASK);
+            renderingHandler.shutdown();
+        }
+        if (documentLoader != null) {
+            documentLoader.cancel();
+            documentLoader = null;
         }
-        if (decodingAsyncTask != null) {
-            decodingAsyncTask.cancel(true);
+        if (pageSizesLoader != null) {
+            pageSizesLoader.cancel();
+            pageSizesLoader = null;
         }
+        if (textIndexer != null) {
+            textIndexer.cancel();
+            textIndexer = null;
+        }
+        if (linkIndex != null) {
+            linkIndex.cancel();
+            linkIndex = null;
+        }
+        endPinch();
 
         // Clear caches
         cacheManager.recycle();
@@ -535,6 +670,12 @@ public class PDFView extends RelativeLayout {
             pdfFile.dispose();
             pdfFile = null;
         }
+        diskCache = null;
+        documentSource = null;
+        if (searchEngine != null) {
+            searchEngine.shutdown();
+            searchEngine = null;
+        }
 
         renderingHandler = null;
         scrollHandle = null;
@@ -542,6 +683,8 @@ public class PDFView extends RelativeLayout {
         currentXOffset = currentYOffset = 0;
         zoom = DEFAULT_MIN_SCALE;
         recycled = true;
+        loadingPagesForPrinting = false;
+        cacheManager.setThumbnailsPinned(false);
         callbacks.clear();
         state = State.DEFAULT;
     }
@@ -565,30 +708,35 @@ public class PDFView extends RelativeLayout {
     @Override
     protected void onAttachedToWindow() {
         super.onAttachedToWindow();
-        callbacks.callOnAttachComplete();
-        if (renderingHandlerThread == null) {
-            renderingHandlerThread = new HandlerThread("PDF renderer");
+        if (!isInEditMode()) {
+            getContext().getApplicationContext().registerComponentCallbacks(trimMemoryCallbacks);
+            if (cacheCoordinator != null) {
+                cacheCoordinator.register(this);
+            }
         }
+        callbacks.callOnAttachComplete();
     }
 
     @Override
     protected void onDetachedFromWindow() {
-        callbacks.callOnDetachComplete();
-        recycle();
-        if (renderingHandlerThread != null) {
-            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2) {
-                renderingHandlerThread.quitSafely();
-            } else {
-                renderingHandlerThread.quit();
+        if (!isInEditMode()) {
+            getContext().getApplicationContext().unregisterComponentCallbacks(trimMemoryCallbacks);
+            if (cacheCoordinator != null) {
+                cacheCoordinator.unregister(this);
             }
-            renderingHandlerThread = null;
         }
+        callbacks.callOnDetachComplete();
+        recycle();
+        bitmapPool.clear();
         super.onDetachedFromWindow();
     }
 
     @Override
     protected void onSizeChanged(int w, int h, int oldw, int oldh) {
         hasSize = true;
+        if (!isInEditMode()) {
+            updateCacheSizes();
+        }
         if (waitingDocumentConfigurator != null) {
             waitingDocumentConfigurator.load();
         }
@@ -613,6 +761,11 @@ public class PDFView extends RelativeLayout {
 
         animationManager.stopAll();
         pdfFile.recalculatePageSizes(new Size(w, h));
+        // The grids of the pages changed with their size
+        if (renderingHandler != null) {
+            renderingHandler.cancelLayoutTasks(Collections.<Integer>emptyList());
+        }
+        cacheManager.removeAllParts();
 
         if (swipeVertical) {
             currentXOffset = -relativeCenterPointInStripXOffset * pdfFile.getMaxPageWidth() + w * 0.5f;
@@ -727,31 +880,79 @@ public class PDFView extends RelativeLayout {
         // Moves the canvas before drawing any element
         canvas.translate(currentXOffset, currentYOffset);
 
-        // Draws thumbnails
-        for (PagePart part : cacheManager.getThumbnails()) {
-            drawPart(canvas, part);
+        // Only the pages intersecting the view are visited
+        int firstVisiblePage = getFirstVisiblePage();
+        int lastVisiblePage = getLastVisiblePage();
+
+        if (pinchSnapshot != null) {
+            // Thumbnails fill the areas uncovered when zooming out, the snapshot taken when the gesture
+            // started is scaled over them: the parts are not drawn again for every scale event
+            drawThumbnails(canvas, firstVisiblePage, lastVisiblePage);
+            float pinchScale = zoom / pinchStartZoom;
+            canvas.save();
+            canvas.scale(pinchScale, pinchScale);
+            canvas.drawBitmap(pinchSnapshot, -pinchStartXOffset, -pinchStartYOffset, null);
+            canvas.restore();
+        } else {
+            drawPages(canvas, firstVisiblePage, lastVisiblePage);
         }
 
-        // Draws parts
-        for (PagePart part : cacheManager.getPageParts()) {
-            drawPart(canvas, part);
-            if (callbacks.getOnDrawAll() != null
-                    && !onDrawPagesNums.contains(part.getPage())) {
-                onDrawPagesNums.add(part.getPage());
+        if (callbacks.getOnDrawAll() != null) {
+            for (int page = firstVisiblePage; page <= lastVisiblePage; page++) {
+                List<PagePart> pageParts = cacheManager.getPageParts(page);
+                if (pageParts != null && !pageParts.isEmpty()) {
+                    drawWithListener(canvas, page, callbacks.getOnDrawAll());
+                }
             }
         }
 
-        for (Integer page : onDrawPagesNums) {
-            drawWithListener(canvas, page, callbacks.getOnDrawAll());
-        }
-        onDrawPagesNums.clear();
-
         drawWithListener(canvas, currentPage, callbacks.getOnDraw());
 
         // Restores the canvas position
         canvas.translate(-currentXOffset, -currentYOffset);
     }
 
+    private void drawThumbnails(Canvas canvas, int firstPage, int lastPage) {
+        for (int page = firstPage; page <= lastPage; page++) {
+            PagePart thumbnail = cacheManager.getThumbnail(page);
+            if (thumbnail != null) {
+                drawPart(canvas, thumbnail);
+            }
+        }
+    }
+
+    /**
+     * Draw the thumbnails and the parts of the given pages, on a canvas translated to the current offsets
+     */
+    private void drawPages(Canvas canvas, int firstPage, int lastPage) {
+        drawThumbnails(canvas, firstPage, lastPage);
+
+        // Draws parts, those of other zoom levels are drawn scaled first to fill the gaps
+        // until the parts of the current level are rendered: coarser levels, then finer levels
+        int zoomLevel = PagesLoader.getZoomLevel(zoom);
+        for (int page = firstPage; page <= lastPage; page++) {
+            List<PagePart> pageParts = cacheManager.getPageParts(page);
+            if (pageParts == null) {
+                continue;
+            }
+            for (int i = 0; i < pageParts.size(); i++) {
+                if (pageParts.get(i).getZoomLevel() < zoomLevel) {
+                    drawPart(canvas, pageParts.get(i));
+                }
+            }
+            for (int i = 0; i < pageParts.size(); i++) {
+                if (pageParts.get(i).getZoomLevel() > zoomLevel) {
+                    drawPart(canvas, pageParts.get(i));
+                }
+            }
+            for (int i = 0; i < pageParts.size(); i++) {
+                if (pageParts.get(i).getZoomLevel() == zoomLevel) {
+                    drawPart(canvas, pageParts.get(i));
+                }
+            }
+        }
+    }
+
     private void drawWithListener(Canvas canvas, int page, OnDrawListener listener) {
         if (listener != null) {
             float translateX, translateY;
@@ -764,10 +965,9 @@ public class PDFView extends RelativeLayout {
             }
 
             canvas.translate(translateX, translateY);
-            SizeF size = pdfFile.getPageSize(page);
             listener.onLayerDrawn(canvas,
-                    toCurrentScale(size.getWidth()),
-                    toCurrentScale(size.getHeight()),
+                    toCurrentScale(pdfFile.getPageWidth(page)),
+                    toCurrentScale(pdfFile.getPageHeight(page)),
                     page);
 
             canvas.translate(-translateX, -translateY);
@@ -789,31 +989,33 @@ public class PDFView extends RelativeLayout {
         // Move to the target page
         float localTranslationX = 0;
         float localTranslationY = 0;
-        SizeF size = pdfFile.getPageSize(part.getPage());
+        float pageWidth = pdfFile.getPageWidth(part.getPage());
+        float pageHeight = pdfFile.getPageHeight(part.getPage());
 
         if (swipeVertical) {
             localTranslationY = pdfFile.getPageOffset(part.getPage(), zoom);
             float maxWidth = pdfFile.getMaxPageWidth();
-            localTranslationX = toCurrentScale(maxWidth - size.getWidth()) / 2;
+            localTranslationX = (maxWidth - pageWidth) * zoom / 2;
         } else {
             localTranslationX = pdfFile.getPageOffset(part.getPage(), zoom);
             float maxHeight = pdfFile.getMaxPageHeight();
-            localTranslationY = toCurrentScale(maxHeight - size.getHeight()) / 2;
+            localTranslationY = (maxHeight - pageHeight) * zoom / 2;
         }
         canvas.translate(localTranslationX, localTranslationY);
 
-        Rect srcRect = new Rect(0, 0, renderedBitmap.getWidth(),
-                renderedBitmap.getHeight());
+        Rect srcRect = drawSrcRect;
+        srcRect.set(0, 0, renderedBitmap.getWidth(), renderedBitmap.getHeight());
 
-        float offsetX = toCurrentScale(pageRelativeBounds.left * size.getWidth());
-        float offsetY = toCurrentScale(pageRelativeBounds.top * size.getHeight());
-        float width = toCurrentScale(pageRelativeBounds.width() * size.getWidth());
-        float height = toCurrentScale(pageRelativeBounds.height() * size.getHeight());
+        float offsetX = pageRelativeBounds.left * pageWidth * zoom;
+        float offsetY = pageRelativeBounds.top * pageHeight * zoom;
+        float width = pageRelativeBounds.width() * pageWidth * zoom;
+        float height = pageRelativeBounds.height() * pageHeight * zoom;
 
         // If we use float values for this rectangle, there will be
         // a possible gap between page parts, especially when
         // the zoom level is high.
-        RectF dstRect = new RectF((int) offsetX, (int) offsetY,
+        RectF dstRect = drawDstRect;
+        dstRect.set((int) offsetX, (int) offsetY,
                 (int) (offsetX + width),
                 (int) (offsetY + height));
 
@@ -847,28 +1049,167 @@ public class PDFView extends RelativeLayout {
             return;
         }
 
-        // Cancel all current tasks
-        renderingHandler.removeMessages(RenderingHandler.MSG_RENDER_TASK);
+        renderingHandler.beginRenderPass();
         cacheManager.makeANewSet();
 
         pagesLoader.loadPages();
+        // Cancel the tasks of the parts that are not needed anymore
+        renderingHandler.cancelStaleTasks();
+
+        if (linkIndex != null) {
+            int lastPage = getLastVisiblePage();
+            for (int page = getFirstVisiblePage(); page <= lastPage; page++) {
+                linkIndex.loadPage(page);
+            }
+        }
         redraw();
     }
 
+    /**
+     * Create an adapter printing the document through the Android print framework. The original document
+     * is handed over as it is when possible, otherwise the pages are rendered one at a time in the background:
+     * when only some pages are shown, when the document is password protected or when its source can't be
+     * read again. The document must stay loaded until printing is finished.
+     *
+     * @param documentName name of the print job
+     * @return the adapter to give to the PrintManager, null if no document is loaded
+     */
+    @Nullable
+    public PrintDocumentAdapter createPrintDocumentAdapter(String documentName) {
+        return createPrintDocumentAdapter(documentName, null);
+    }
+
+    /**
+     * Same as {@link #createPrintDocumentAdapter(String)}, telling the listener when the pages have been
+     * rendered at a lower resolution than the printer's to fit in memory, so that the user can be warned.
+     * Printing fails with a message asking for fewer pages when even the lowest resolution doesn't fit.
+     *
+     * @param documentName         name of the print job
+     * @param printQualityListener listener called on the main thread, null for none
+     * @return the adapter to give to the PrintManager, null if no document is loaded
+     */
+    @Nullable
+    public PrintDocumentAdapter createPrintDocumentAdapter(String documentName,
+                                                           @Nullable PrintQualityListener printQualityListener) {
+        if (pdfFile == null) {
+            return null;
+        }
+        PdfPrintDocumentAdapter adapter;
+        if (documentSource != null && !passwordProtected && pdfFile.isWholeDocument()) {
+            adapter = new PassThroughPrintDocumentAdapter(getContext(), pdfFile, documentSource, documentName,
+                    annotationRendering);
+        } else {
+            adapter = new PdfPrintDocumentAdapter(getContext(), pdfFile, documentName, annotationRendering);
+        }
+        adapter.setPrintQualityListener(printQualityListener);
+        return adapter;
+    }
+
+    /**
+     * Create a producer rendering the pages of the document one at a time at the given resolution,
+     * on the calling thread. The document must stay loaded while it's used.
+     *
+     * @param dpi resolution of the rendered pages, in dots per inch
+     * @return the producer, null if no document is loaded
+     */
+    @Nullable
+    public PrintProducer createPrintProducer(int dpi) {
+        if (pdfFile == null) {
+            return null;
+        }
+        return new PrintProducer(pdfFile, dpi, annotationRendering);
+    }
+
     /**
      * Force the generation of bitmaps for all pages.
      * Implement {@link com.infomaniak.lib.pdfview.listener.OnReadyForPrintingListener} to retrieve the bitmaps.
+     *
+     * @deprecated keeps every page in memory at once, use {@link #createPrintDocumentAdapter(String)}
+     * or {@link #createPrintProducer(int)} instead
      */
+    @Deprecated
     public void loadPagesForPrinting() {
         if (pdfFile == null || renderingHandler == null) {
             return;
         }
 
         // Cancel all current tasks
-        renderingHandler.removeMessages(RenderingHandler.MSG_RENDER_TASK);
+        renderingHandler.removeRenderingTasks();
         cacheManager.makeANewSet();
 
+        // Pages are printed with their actual size
+        List<Integer> changedPages = pdfFile.readRemainingPageSizes();
+        if (!changedPages.isEmpty()) {
+            // A new largest page rescales all the pages, not only the changed ones
+            renderingHandler.cancelLayoutTasks(changedPages);
+            cacheManager.removeAllParts();
+        }
+        for (int page : changedPages) {
+            cacheManager.removePageParts(page);
+        }
+
+        loadingPagesForPrinting = true;
+        cacheManager.setThumbnailsPinned(true);
         pagesLoader.loadPagesForPrinting(getPageCount());
+        // The thumbnails may all be cached already, in which case none is rendered
+        checkPagesLoadedForPrinting();
+    }
+
+    /**
+     * Deliver the pages for printing once the thumbnails of all of them are cached, whatever the order
+     * the rendering threads complete them in
+     */
+    private void checkPagesLoadedForPrinting() {
+        if (!loadingPagesForPrinting) {
+            return;
+        }
+        for (int page = 0; page < pdfFile.getPagesCount(); page++) {
+            if (!cacheManager.containsThumbnail(page)) {
+                return;
+            }
+        }
+        loadingPagesForPrinting = false;
+        callbacks.callsOnReadyForPrinting(getPagesAsBitmaps());
+        cacheManager.setThumbnailsPinned(false);
+    }
+
+    /**
+     * Called when the actual size of pages whose size was estimated has been read,
+     * the layout is updated without moving the content displayed
+     */
+    void onPageSizesRead(PdfFile pdfFile, int start, Size[] sizes) {
+        if (recycled || pdfFile != this.pdfFile) {
+            return;
+        }
+
+        // Remember where the viewport is relatively to the page displayed at its start
+        float offset = swipeVertical ? -currentYOffset : -currentXOffset;
+        int anchorPage = pdfFile.getPageAtOffset(offset, zoom);
+        float anchorDelta = offset - pdfFile.getPageOffset(anchorPage, zoom);
+
+        List<Integer> changedPages = pdfFile.applyPageSizes(start, sizes);
+        if (!pdfFile.hasEstimatedPageSizes()) {
+            pageSizesLoader = null;
+        }
+        if (changedPages.isEmpty()) {
+            return;
+        }
+
+        // A new largest page rescales all the pages, not only the changed ones
+        if (renderingHandler != null) {
+            renderingHandler.cancelLayoutTasks(changedPages);
+        }
+        cacheManager.removeAllParts();
+        for (int page : changedPages) {
+            cacheManager.removePageParts(page);
+        }
+        float newOffset = -(pdfFile.getPageOffset(anchorPage, zoom) + anchorDelta);
+        if (swipeVertical) {
+            moveTo(currentXOffset, newOffset, false);
+        } else {
+            moveTo(newOffset, currentYOffset, false);
+        }
+        loadPages();
     }
 
     /**
@@ -878,17 +1219,31 @@ public class PDFView extends RelativeLayout {
         state = State.LOADED;
 
         this.pdfFile = pdfFile;
+        pdfFile.setMaxOpenedPages(maxOpenedPages);
+        if (diskCacheSize > 0 && pdfFile.getFingerprint() != null) {
+            diskCache = DiskCache.getInstance(getContext(), diskCacheSize);
+        }
 
-        if (renderingHandlerThread == null) {
+        if (!isAttachedToWindow()) {
             return;
         }
 
-        if (!renderingHandlerThread.isAlive()) {
-            renderingHandlerThread.start();
-        }
-        renderingHandler = new RenderingHandler(renderingHandlerThread.getLooper(), this);
+        renderingHandler = new RenderingHandler(this);
         renderingHandler.start();
 
+        if (pdfFile.hasEstimatedPageSizes()) {
+            pageSizesLoader = new PageSizesLoader(this, pdfFile);
+            BackgroundExecutor.executeLongRunning(pageSizesLoader);
+        }
+
+        linkIndex = new LinkIndex(this, pdfFile);
+
+        if (textIndex && textExtractor != null && pdfFile.getFingerprint() != null) {
+            textIndexer = new TextIndexer(TextIndex.getInstance(getContext()), textExtractor,
+                    pdfFile.getFingerprint(), pdfFile.getDocumentPagesCount());
+            BackgroundExecutor.executeLongRunning(textIndexer);
+        }
+
         if (scrollHandle != null) {
             scrollHandle.setupLayout(this);
             isScrollHandleInit = true;
@@ -901,6 +1256,25 @@ public class PDFView extends RelativeLayout {
         jumpTo(defaultPage, false);
     }
 
+    /**
+     * Called when the first displayed page has been rendered by the loader while the renderer starts.
+     * It's shown right away as the thumbnail of the page, until its parts are rendered.
+     */
+    void onProvisionalFrameRendered(PdfFile pdfFile, Bitmap provisionalFrame) {
+        int page = pdfFile.determineValidPageNumberFrom(defaultPage);
+        if (recycled || pdfFile != this.pdfFile || cacheManager.containsThumbnail(page)) {
+            // The renderer has been faster
+            bitmapPool.release(provisionalFrame);
+            return;
+        }
+        cacheManager.cacheThumbnail(new PagePart(page, provisionalFrame, new RectF(0, 0, 1, 1), true, 0), false);
+        if (state == State.LOADED) {
+            state = State.SHOWN;
+            callbacks.callOnRender(pdfFile.getPagesCount());
+        }
+        redraw();
+    }
+
     void loadError(Throwable t) {
         state = State.ERROR;
         // store reference, because callbacks will be cleared in recycle() method
@@ -933,8 +1307,8 @@ public class PDFView extends RelativeLayout {
 
         if (part.isThumbnail()) {
             cacheManager.cacheThumbnail(part, isForPrinting);
-            if (isForPrinting && pdfFile.getPagesCount() - 1 == part.getPage()) {
-                callbacks.callsOnReadyForPrinting(getPagesAsBitmaps());
+            if (isForPrinting) {
+                checkPagesLoadedForPrinting();
             }
         } else {
             cacheManager.cachePart(part);
@@ -1191,6 +1565,52 @@ public class PDFView extends RelativeLayout {
         this.zoom = zoom;
     }
 
+    /**
+     * Take a snapshot of the pages as currently drawn, which is scaled to the zoom until {@link #endPinch()}
+     * is called instead of drawing the parts
+     */
+    void startPinch() {
+        pinchStartZoom = zoom;
+        if (pdfFile == null || state != State.SHOWN || getWidth() == 0 || getHeight() == 0) {
+            return;
+        }
+        try {
+            pinchSnapshot = bitmapPool.acquire(getWidth(), getHeight(), Bitmap.Config.ARGB_8888);
+        } catch (OutOfMemoryError e) {
+            Log.w(TAG, "Cannot take a snapshot for pinching", e);
+            return;
+        }
+        pinchStartXOffset = currentXOffset;
+        pinchStartYOffset = currentYOffset;
+        Canvas snapshotCanvas = new Canvas(pinchSnapshot);
+        if (enableAntialiasing) {
+            snapshotCanvas.setDrawFilter(antialiasFilter);
+        }
+        snapshotCanvas.translate(currentXOffset, currentYOffset);
+        drawPages(snapshotCanvas, getFirstVisiblePage(), getLastVisiblePage());
+    }
+
+    void endPinch() {
+        pinchStartZoom = 0;
+        bitmapPool.release(pinchSnapshot);
+        pinchSnapshot = null;
+    }
+
+    /**
+     * @return true if the pinch gesture in progress draws a snapshot instead of the parts
+     */
+    boolean hasPinchSnapshot() {
+        return pinchSnapshot != null;
+    }
+
+    ScrollDir getScrollDir() {
+        return scrollDir;
+    }
+
+    AnimationManager getAnimationManager() {
+        return animationManager;
+    }
+
     /**
      * Change the zoom level, relatively to a pivot point.
      * It will call moveTo() to make sure the given point stays
@@ -1287,6 +1707,71 @@ public class PDFView extends RelativeLayout {
         return currentPage;
     }
 
+    /**
+     * Set the extractor providing the text of the pages, needed to search the document. The pdfium bindings
+     * don't expose the text of the pages, without an extractor the document can't be searched.
+     */
+    public void setTextExtractor(TextExtractor textExtractor) {
+        this.textExtractor = textExtractor;
+    }
+
+    /**
+     * @return true if the document can be searched, a {@link TextExtractor} has been set
+     */
+    public boolean isSearchAvailable() {
+        return textExtractor != null;
+    }
+
+    public TextExtractor getTextExtractor() {
+        return textExtractor;
+    }
+
+    /**
+     * Store the text of the documents on disk once extracted, so that the next searches, even after
+     * the document is opened again, find the pages through the index without extracting their text.
+     * Applied on the next load.
+     */
+    public void setTextIndex(boolean textIndex) {
+        this.textIndex = textIndex;
+    }
+
+    public boolean isTextIndex() {
+        return textIndex;
+    }
+
+    /**
+     * Search a text in the document, case insensitively and from the start of a word, starting from the
+     * current page. The hits are handed over to the listener as soon as they are found. The search in progress,
+     * if any, is cancelled.
+     * A {@link TextExtractor} must have been set, see {@link #isSearchAvailable()}.
+     *
+     * @param query    text to search
+     * @param listener listener receiving the hits on the main thread
+     * @throws IllegalStateException if no {@link TextExtractor} has been set
+     */
+    public void search(String query, OnSearchListener listener) {
+        if (textExtractor == null) {
+            throw new IllegalStateException("A TextExtractor must be set to search the document");
+        }
+        if (pdfFile == null) {
+            return;
+        }
+        if (searchEngine == null) {
+            searchEngine = new SearchEngine(this);
+        }
+        searchEngine.search(pdfFile, textExtractor, textIndex ? TextIndex.getInstance(getContext()) : null,
+                query, currentPage, listener);
+    }
+
+    /**
+     * Cancel the search in progress, its listener isn't called anymore
+     */
+    public void cancelSearch() {
+        if (searchEngine != null) {
+            searchEngine.cancel();
+        }
+    }
+
     public float getCurrentXOffset() {
         return currentXOffset;
     }
@@ -1315,6 +1800,10 @@ public class PDFView extends RelativeLayout {
         this.defaultPage = defaultPage;
     }
 
+    int getDefaultPage() {
+        return defaultPage;
+    }
+
     public void resetZoom() {
         zoomTo(minZoom);
     }
@@ -1386,6 +1875,161 @@ public class PDFView extends RelativeLayout {
         return thumbnailRatio;
     }
 
+    /**
+     * @deprecated pdfium renders one bitmap at a time whatever the number of threads, the rendering threads
+     * are not configurable anymore and this call is ignored
+     */
+    @Deprecated
+    public void setRenderingThreads(int renderingThreads) {
+    }
+
+    /**
+     * @deprecated see {@link #setRenderingThreads(int)}
+     */
+    @Deprecated
+    public int getRenderingThreads() {
+        return Constants.RENDERING_THREADS;
+    }
+
+    /**
+     * Maximum number of pages kept opened in pdfium at once, the least recently used ones are closed beyond it
+     */
+    public void setMaxOpenedPages(int maxOpenedPages) {
+        if (maxOpenedPages < 1) throw new IllegalArgumentException("maxOpenedPages must be greater than 0");
+        this.maxOpenedPages = maxOpenedPages;
+        if (pdfFile != null) {
+            pdfFile.setMaxOpenedPages(maxOpenedPages);
+        }
+    }
+
+    public int getMaxOpenedPages() {
+        return maxOpenedPages;
+    }
+
+    /**
+     * Maximum size in bytes of the rendered parts and thumbnails kept on disk between openings
+     * of the same document, 0 to disable the disk cache. Applied on the next load.
+     */
+    public void setDiskCacheSize(long diskCacheSize) {
+        if (diskCacheSize < 0) throw new IllegalArgumentException("diskCacheSize must not be negative");
+        this.diskCacheSize = diskCacheSize;
+    }
+
+    public long getDiskCacheSize() {
+        return diskCacheSize;
+    }
+
+    /**
+     * Maximum size in bytes of the rendered parts kept in memory, 0 to derive it from the memory
+     * of the device and the size of the view
+     */
+    public void setPartsCacheSize(long partsCacheSize) {
+        if (partsCacheSize < 0) throw new IllegalArgumentException("partsCacheSize must not be negative");
+        this.partsCacheSize = partsCacheSize;
+        updateCacheSizes();
+    }
+
+    public long getPartsCacheSize() {
+        return partsCacheSize;
+    }
+
+    /**
+     * Maximum size in bytes of the thumbnails kept in memory, 0 to derive it from the memory of the device
+     */
+    public void setThumbnailsCacheSize(long thumbnailsCacheSize) {
+        if (thumbnailsCacheSize < 0) throw new IllegalArgumentException("thumbnailsCacheSize must not be negative");
+        this.thumbnailsCacheSize = thumbnailsCacheSize;
+        updateCacheSizes();
+    }
+
+    public long getThumbnailsCacheSize() {
+        return thumbnailsCacheSize;
+    }
+
+    /**
+     * Share one memory budget with all the other views using a shared cache, see {@link CacheCoordinator}.
+     * The sizes set with {@link #setPartsCacheSize(long)} and {@link #setThumbnailsCacheSize(long)}
+     * are then ignored.
+     */
+    public void setSharedCache(boolean sharedCache) {
+        if (sharedCache && cacheCoordinator == null) {
+            cacheCoordinator = CacheCoordinator.getInstance(getContext());
+            if (isAttachedToWindow()) {
+                cacheCoordinator.register(this);
+            }
+        } else if (!sharedCache && cacheCoordinator != null) {
+            cacheCoordinator.unregister(this);
+            cacheCoordinator = null;
+            updateCacheSizes();
+        }
+    }
+
+    public boolean isSharedCache() {
+        return cacheCoordinator != null;
+    }
+
+    /**
+     * Give this view the largest share of the shared cache budget, when the user interacts with it
+     */
+    void activateSharedCache() {
+        if (cacheCoordinator != null) {
+            cacheCoordinator.setActiveView(this);
+        }
+    }
+
+    void applyCacheSizes(long partsCacheSize, long thumbnailsCacheSize) {
+        cacheManager.setCacheSizes(partsCacheSize, thumbnailsCacheSize);
+    }
+
+    private void updateCacheSizes() {
+        if (cacheCoordinator != null) {
+            return;
+        }
+        long parts = partsCacheSize > 0
+                ? partsCacheSize
+                : CacheManager.getDefaultPartsCacheSize(getContext(), getWidth(), getHeight());
+        long thumbnails = thumbnailsCacheSize > 0
+                ? thumbnailsCacheSize
+                : CacheManager.getDefaultThumbnailsCacheSize(getContext());
+        applyCacheSizes(parts, thumbnails);
+    }
+
+    /**
+     * Release memory depending on the trim level, starting with what is the cheapest to get back:
+     * passive parts, then thumbnails of the pages out of the view, then the pages opened in pdfium
+     * and the pooled bitmaps. The parts of the current set, visible ones included, are kept.
+     * The UI being hidden is not a memory shortage, it's handled as a moderate trim so that the document
+     * shows again at once, while the background levels above it release everything.
+     */
+    private void trimMemory(int level) {
+        if (level == ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN) {
+            level = ComponentCallbacks2.TRIM_MEMORY_RUNNING_MODERATE;
+        }
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_MODERATE) {
+            cacheManager.removePassiveParts();
+        }
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW && state == State.SHOWN) {
+            cacheManager.removeThumbnailsOutside(getFirstVisiblePage(), getLastVisiblePage());
+        }
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+            if (pdfFile != null) {
+                pdfFile.closeOpenedPages();
+            }
+            bitmapPool.clear();
+        }
+    }
+
+    private int getFirstVisiblePage() {
+        float viewStart = swipeVertical ? -currentYOffset : -currentXOffset;
+        return pdfFile.getPageAtOffset(viewStart, zoom);
+    }
+
+    private int getLastVisiblePage() {
+        float viewStart = swipeVertical ? -currentYOffset : -currentXOffset;
+        float viewLength = swipeVertical ? getHeight() : getWidth();
+        return pdfFile.getPageAtOffset(viewStart + viewLength, zoom);
+    }
+
     public void setHorizontalBorder(int horizontalBorderDP) {
         this.horizontalBorder = Util.getDP(getContext(), horizontalBorderDP);
     }
@@ -1414,6 +2058,10 @@ public class PDFView extends RelativeLayout {
         return annotationRendering;
     }
 
+    /**
+     * Render the parts at the new zoom level while pinching. The pages are drawn from a snapshot during
+     * the gesture when there is enough memory for it, the parts are then only rendered at its end.
+     */
     public void enableRenderDuringScale(boolean renderDuringScale) {
         this.renderDuringScale = renderDuringScale;
     }
@@ -1554,6 +2202,15 @@ public class PDFView extends RelativeLayout {
         return new Configurator(docSource);
     }
 
+    /**
+     * Use a document already opened by the app. It's left open when the view is recycled,
+     * closing it once the view is done with it is up to the app. Using the document from the app
+     * while the view displays it is not supported.
+     */
+    public Configurator fromDocument(PdfDocument pdfDocument) {
+        return new Configurator(new PdfDocumentSource(pdfDocument));
+    }
+
     private enum State {DEFAULT, LOADED, SHOWN, ERROR}
 
     public class Configurator {
@@ -1571,6 +2228,7 @@ public class PDFView extends RelativeLayout {
         private OnDrawListener onDrawAllListener;
 
         private OnReadyForPrintingListener onReadyForPrintingListener;
+        private OnLoadProgressListener onLoadProgressListener;
         private OnLoadCompleteListener onLoadCompleteListener;
         private OnAttachCompleteListener onAttachCompleteListener;
         private OnDetachCompleteListener onDetachCompleteListener;
@@ -1626,6 +2284,13 @@ public class PDFView extends RelativeLayout {
         private boolean touchPriority = false;
         private boolean useBestQuality = false;
         private float thumbnailRatio = Constants.THUMBNAIL_RATIO;
+        private int maxOpenedPages = Constants.Cache.MAX_OPENED_PAGES;
+        private long diskCacheSize = 0;
+        private long partsCacheSize = 0;
+        private long thumbnailsCacheSize = 0;
+        private boolean sharedCache = false;
+        private TextExtractor textExtractor = null;
+        private boolean textIndex = false;
         private int horizontalBorder = 0;
         private int verticalBorder = 0;
 
@@ -1663,6 +2328,10 @@ public class PDFView extends RelativeLayout {
             return this;
         }
 
+        /**
+         * @deprecated see {@link PDFView#loadPagesForPrinting()}
+         */
+        @Deprecated
         public Configurator onReadyForPrinting(OnReadyForPrintingListener onReadyForPrintingListener) {
             this.onReadyForPrintingListener = onReadyForPrintingListener;
             return this;
@@ -1673,6 +2342,15 @@ public class PDFView extends RelativeLayout {
             return this;
         }
 
+        /**
+         * @param onLoadProgressListener called when the document is opened, when its pages are counted and
+         *                               when they are laid out, before the loading completes
+         */
+        public Configurator onLoadProgress(OnLoadProgressListener onLoadProgressListener) {
+            this.onLoadProgressListener = onLoadProgressListener;
+            return this;
+        }
+
         public Configurator onAttach(OnAttachCompleteListener onAttachCompleteListener) {
             this.onAttachCompleteListener = onAttachCompleteListener;
             return this;
@@ -1811,6 +2489,9 @@ public class PDFView extends RelativeLayout {
             return this;
         }
 
+        /**
+         * @see PDFView#enableRenderDuringScale(boolean)
+         */
         public Configurator renderDuringScale(boolean renderDuringScale) {
             PDFView.this.renderDuringScale = renderDuringScale;
             return this;
@@ -1831,6 +2512,96 @@ public class PDFView extends RelativeLayout {
             return this;
         }
 
+        /**
+         * @deprecated see {@link PDFView#setRenderingThreads(int)}
+         */
+        @Deprecated
+        public Configurator renderingThreads(int renderingThreads) {
+            return this;
+        }
+
+        /**
+         * Maximum number of pages kept opened in pdfium at once. Pages use native memory while opened,
+         * the least recently used ones are closed beyond this number and opened again when needed.
+         * @param maxOpenedPages maximum number of opened pages, at least 1
+         */
+        public Configurator maxOpenedPages(int maxOpenedPages) {
+            this.maxOpenedPages = maxOpenedPages;
+            return this;
+        }
+
+        /**
+         * Keep the rendered parts and thumbnails on disk, so that they are not rendered again
+         * the next time the same document is opened. Disabled by default.
+         * @param enabled true to enable the disk cache, with a size of {@link Constants.Cache#DISK_CACHE_SIZE}
+         */
+        public Configurator diskCache(boolean enabled) {
+            return diskCacheSize(enabled ? Constants.Cache.DISK_CACHE_SIZE : 0);
+        }
+
+        /**
+         * Keep the rendered parts and thumbnails on disk, up to the given size.
+         * @param diskCacheSize maximum size in bytes of the disk cache, 0 to disable it
+         */
+        public Configurator diskCacheSize(long diskCacheSize) {
+            this.diskCacheSize = diskCacheSize;
+            return this;
+        }
+
+        /**
+         * Maximum size in bytes of the rendered parts kept in memory. By default, it's a share of the heap
+         * of the app, smaller on low RAM devices, and enough to cover the view a few times.
+         * @param partsCacheSize maximum size in bytes of the parts cache, 0 for the default size
+         */
+        public Configurator partsCacheSize(long partsCacheSize) {
+            this.partsCacheSize = partsCacheSize;
+            return this;
+        }
+
+        /**
+         * Maximum size in bytes of the thumbnails kept in memory. By default, it's a share of the heap
+         * of the app, smaller on low RAM devices.
+         * @param thumbnailsCacheSize maximum size in bytes of the thumbnails cache, 0 for the default size
+         */
+        public Configurator thumbnailsCacheSize(long thumbnailsCacheSize) {
+            this.thumbnailsCacheSize = thumbnailsCacheSize;
+            return this;
+        }
+
+        /**
+         * Share one memory budget with the other views using a shared cache, the view the user interacts
+         * with getting the largest share. Useful when several documents are alive at once, in a ViewPager
+         * for example. See {@link CacheCoordinator}.
+         * @param sharedCache true to use the budget of the {@link CacheCoordinator} instead of an own one
+         */
+        public Configurator sharedCache(boolean sharedCache) {
+            this.sharedCache = sharedCache;
+            return this;
+        }
+
+        /**
+         * Provide the text of the pages, needed to search the document with {@link PDFView#search}.
+         * The library can't read the text of the pages itself, without an extractor the document can't be
+         * searched.
+         * @param textExtractor extractor of the text of the pages
+         */
+        public Configurator textExtractor(TextExtractor textExtractor) {
+            this.textExtractor = textExtractor;
+            return this;
+        }
+
+        /**
+         * Store the text of the document in an index on disk, built in the background when the document is
+         * opened for the first time, so that searches answer without extracting the text. Disabled by default.
+         * Requires a {@link #textExtractor(TextExtractor)}, {@link #load()} throws an IllegalStateException
+         * otherwise.
+         * @param textIndex true to index the text of the documents
+         */
+        public Configurator textIndex(boolean textIndex) {
+            this.textIndex = textIndex;
+            return this;
+        }
+
         public Configurator horizontalBorder(int horizontalBorder) {
             this.horizontalBorder = horizontalBorder;
             return this;
@@ -1842,12 +2613,16 @@ public class PDFView extends RelativeLayout {
         }
 
         public void load() {
+            if (textIndex && textExtractor == null) {
+                throw new IllegalStateException("A TextExtractor must be set to index the text of the document");
+            }
             if (!hasSize) {
                 waitingDocumentConfigurator = this;
                 return;
             }
             PDFView.this.recycle();
             PDFView.this.callbacks.setOnReadyForPrinting(onReadyForPrintingListener);
+            PDFView.this.callbacks.setOnLoadProgress(onLoadProgressListener);
             PDFView.this.callbacks.setOnLoadComplete(onLoadCompleteListener);
             PDFView.this.callbacks.setOnAttachCompleteListener(onAttachCompleteListener);
             PDFView.this.callbacks.setOnDetachCompleteListener(onDetachCompleteListener);
@@ -1881,6 +2656,13 @@ public class PDFView extends RelativeLayout {
             PDFView.this.setMaxZoom(maxZoom);
             PDFView.this.useBestQuality(useBestQuality);
             PDFView.this.setThumbnailRatio(thumbnailRatio);
+            PDFView.this.setMaxOpenedPages(maxOpenedPages);
+            PDFView.this.setDiskCacheSize(diskCacheSize);
+            PDFView.this.setPartsCacheSize(partsCacheSize);
+            PDFView.this.setThumbnailsCacheSize(thumbnailsCacheSize);
+            PDFView.this.setSharedCache(sharedCache);
+            PDFView.this.setTextExtractor(textExtractor);
+            PDFView.this.setTextIndex(textIndex);
             PDFView.this.setHorizontalBorder(horizontalBorder);
             PDFView.this.setVerticalBorder(verticalBorder);
             renderDuringScale(renderDuringScale);
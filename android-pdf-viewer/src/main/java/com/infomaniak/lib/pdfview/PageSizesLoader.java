@@ -0,0 +1,72 @@
+/*
+ * Infomaniak android-pdf-viewer
+ * Copyright (C) 2024 Infomaniak Network SA
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.infomaniak.lib.pdfview;
+
+import com.infomaniak.lib.pdfview.util.Constants;
+import com.shockwave.pdfium.util.Size;
+
+import java.lang.ref.WeakReference;
+
+/**
+ * Reads in the background, chunk by chunk, the size of the pages that {@link PdfFile} only estimated
+ * when the document has been opened, and hands them over to {@link PDFView} on the main thread.
+ * Once done, the sizes are stored in the layout index of the document.
+ */
+class PageSizesLoader implements Runnable {
+
+    private final WeakReference<PDFView> pdfViewReference;
+    private final PdfFile pdfFile;
+    private volatile boolean cancelled = false;
+
+    PageSizesLoader(PDFView pdfView, PdfFile pdfFile) {
+        this.pdfViewReference = new WeakReference<>(pdfView);
+        this.pdfFile = pdfFile;
+    }
+
+    void cancel() {
+        cancelled = true;
+    }
+
+    @Override
+    public void run() {
+        int pagesCount = pdfFile.getPagesCount();
+        Size[] allSizes = new Size[pagesCount];
+        for (int start = 0; start < pagesCount && !cancelled; start += Constants.PAGE_SIZES_CHUNK) {
+            final int chunkStart = start;
+            final Size[] sizes = pdfFile.readPageSizes(start, Math.min(start + Constants.PAGE_SIZES_CHUNK, pagesCount));
+            final PDFView pdfView = pdfViewReference.get();
+            if (sizes == null || pdfView == null) {
+                return;
+            }
+            System.arraycopy(sizes, 0, allSizes, start, sizes.length);
+            pdfView.post(new Runnable() {
+                @Override
+                public void run() {
+                    if (!cancelled) {
+                        pdfView.onPageSizesRead(pdfFile, chunkStart, sizes);
+                    }
+                }
+            });
+        }
+
+        if (!cancelled) {
+            // Every size is known, the next openings of the document won't need to read them
+            pdfFile.writeLayoutIndex(allSizes);
+        }
+    }
+}
@@ -17,7 +17,7 @@
  */
 package com.infomaniak.lib.pdfview;
 
-import static com.infomaniak.lib.pdfview.util.Constants.Cache.CACHE_SIZE;
+import static com.infomaniak.lib.pdfview.util.Constants.PRELOAD_LEADING_RATIO;
 import static com.infomaniak.lib.pdfview.util.Constants.PRELOAD_OFFSET;
 
 import android.graphics.RectF;
@@ -26,7 +26,6 @@ import com.infomaniak.lib.pdfview.RenderingHandler.RenderingSize;
 import com.infomaniak.lib.pdfview.util.Constants;
 import com.infomaniak.lib.pdfview.util.MathUtils;
 import com.infomaniak.lib.pdfview.util.Util;
-import com.shockwave.pdfium.util.SizeF;
 
 import java.util.LinkedList;
 import java.util.List;
@@ -35,14 +34,25 @@ class PagesLoader {
 
     private PDFView pdfView;
     private int cacheOrder;
+    private int zoomLevel;
+    private float levelZoom;
     private float xOffset;
     private float yOffset;
     private float pageRelativePartWidth;
     private float pageRelativePartHeight;
     private float partRenderWidth;
     private float partRenderHeight;
+    private final RectF pageBounds = new RectF();
+    private float viewportLeft;
+    private float viewportTop;
+    private float viewportRight;
+    private float viewportBottom;
     private final RectF thumbnailRect = new RectF(0, 0, 1, 1);
     private final int preloadOffset;
+    /**
+     * Number of parts fitting in the cache, no more are loaded at once
+     */
+    private int maxParts;
 
     private class Holder {
         int row;
@@ -97,16 +107,42 @@ class PagesLoader {
         loadAllForPrinting(pagesCount);
     }
 
+    /**
+     * Get the zoom level the parts are rendered for at the given zoom,
+     * that is the smallest level whose zoom is not lower than the given one.
+     */
+    static int getZoomLevel(float zoom) {
+        double level = Math.log(zoom) / Math.log(2) * Constants.ZOOM_LEVELS_PER_OCTAVE;
+        // Ignore rounding errors, a zoom of exactly one level must not use the next one
+        return (int) Math.ceil(level - 1e-4);
+    }
+
+    static float getLevelZoom(int zoomLevel) {
+        return (float) Math.pow(2, zoomLevel / (double) Constants.ZOOM_LEVELS_PER_OCTAVE);
+    }
+
     private void getPageColsRows(GridSize grid, int pageIndex) {
-        SizeF size = pdfView.pdfFile.getPageSize(pageIndex);
-        float ratioX = 1f / size.getWidth();
-        float ratioY = 1f / size.getHeight();
-        final float partHeight = (Constants.PART_SIZE * ratioY) / pdfView.getZoom();
-        final float partWidth = (Constants.PART_SIZE * ratioX) / pdfView.getZoom();
+        float ratioX = 1f / pdfView.pdfFile.getPageWidth(pageIndex);
+        float ratioY = 1f / pdfView.pdfFile.getPageHeight(pageIndex);
+        final float partHeight = (Constants.PART_SIZE * ratioY) / levelZoom;
+        final float partWidth = (Constants.PART_SIZE * ratioX) / levelZoom;
         grid.rows = MathUtils.ceil(1f / partHeight);
         grid.cols = MathUtils.ceil(1f / partWidth);
     }
 
+    /**
+     * Calculate the bounds of the page in the whole document, at the current zoom
+     */
+    private void calculatePageBounds(int page) {
+        pdfView.pdfFile.getPageBounds(page, pdfView.getZoom(), pageBounds);
+    }
+
+    private float distanceToViewportCenter(float centerX, float centerY) {
+        float dx = centerX - (viewportLeft + viewportRight) / 2f;
+        float dy = centerY - (viewportTop + viewportBottom) / 2f;
+        return dx * dx + dy * dy;
+    }
+
     private void calculatePartSize(GridSize grid) {
         pageRelativePartWidth = 1f / (float) grid.cols;
         pageRelativePartHeight = 1f / (float) grid.rows;
@@ -147,13 +183,13 @@ class PagesLoader {
                     pageLastYOffset = fixedLastYOffset;
                 } else {
                     float pageOffset = pdfView.pdfFile.getPageOffset(page, pdfView.getZoom());
-                    SizeF pageSize = pdfView.pdfFile.getScaledPageSize(page, pdfView.getZoom());
+                    float pageLength = pdfView.pdfFile.getPageLength(page, pdfView.getZoom());
                     if (pdfView.isSwipeVertical()) {
                         pageLastXOffset = fixedLastXOffset;
-                        pageLastYOffset = pageOffset + pageSize.getHeight();
+                        pageLastYOffset = pageOffset + pageLength;
                     } else {
                         pageLastYOffset = fixedLastYOffset;
-                        pageLastXOffset = pageOffset + pageSize.getWidth();
+                        pageLastXOffset = pageOffset + pageLength;
                     }
                 }
             } else if (page == lastPage) {
@@ -172,26 +208,25 @@ class PagesLoader {
 
             } else {
                 float pageOffset = pdfView.pdfFile.getPageOffset(page, pdfView.getZoom());
-                SizeF pageSize = pdfView.pdfFile.getScaledPageSize(page, pdfView.getZoom());
+                float pageLength = pdfView.pdfFile.getPageLength(page, pdfView.getZoom());
                 if (pdfView.isSwipeVertical()) {
                     pageFirstXOffset = fixedFirstXOffset;
                     pageFirstYOffset = pageOffset;
 
                     pageLastXOffset = fixedLastXOffset;
-                    pageLastYOffset = pageOffset + pageSize.getHeight();
+                    pageLastYOffset = pageOffset + pageLength;
                 } else {
                     pageFirstXOffset = pageOffset;
                     pageFirstYOffset = fixedFirstYOffset;
 
-                    pageLastXOffset = pageOffset + pageSize.getWidth();
+                    pageLastXOffset = pageOffset + pageLength;
                     pageLastYOffset = fixedLastYOffset;
                 }
             }
 
             getPageColsRows(range.gridSize, range.page); // get the page's grid size that rows and cols
-            SizeF scaledPageSize = pdfView.pdfFile.getScaledPageSize(range.page, pdfView.getZoom());
-            float rowHeight = scaledPageSize.getHeight() / range.gridSize.rows;
-            float colWidth = scaledPageSize.getWidth() / range.gridSize.cols;
+            float rowHeight = pdfView.pdfFile.getPageHeight(range.page) * pdfView.getZoom() / range.gridSize.rows;
+            float colWidth = pdfView.pdfFile.getPageWidth(range.page) * pdfView.getZoom() / range.gridSize.cols;
 
             // Get the page offset int the whole file
             // ---------------------------------------
@@ -244,20 +279,74 @@ class PagesLoader {
     }
 
     private void loadVisible() {
-        int parts = 0;
-        float scaledPreloadOffset = preloadOffset;
-        float firstXOffset = -xOffset + scaledPreloadOffset;
-        float lastXOffset = -xOffset - pdfView.getWidth() - scaledPreloadOffset;
-        float firstYOffset = -yOffset + scaledPreloadOffset;
-        float lastYOffset = -yOffset - pdfView.getHeight() - scaledPreloadOffset;
+        // Preload more ahead of the scroll direction and nothing behind it
+        float viewLength = pdfView.isSwipeVertical() ? pdfView.getHeight() : pdfView.getWidth();
+        float leadingPreloadOffset = Math.max(preloadOffset, viewLength * PRELOAD_LEADING_RATIO);
+        float startPreloadOffset = preloadOffset;
+        float endPreloadOffset = preloadOffset;
+        if (pdfView.getScrollDir() == PDFView.ScrollDir.START) {
+            startPreloadOffset = leadingPreloadOffset;
+            endPreloadOffset = 0;
+        } else if (pdfView.getScrollDir() == PDFView.ScrollDir.END) {
+            startPreloadOffset = 0;
+            endPreloadOffset = leadingPreloadOffset;
+        }
 
-        List<RenderRange> rangeList = getRenderRangeList(firstXOffset, firstYOffset, lastXOffset, lastYOffset);
+        List<RenderRange> rangeList = getRenderRangeList(xOffset, yOffset, startPreloadOffset, endPreloadOffset);
+
+        // When flinging far away, prefetch where the fling will stop
+        List<RenderRange> flingRangeList = null;
+        AnimationManager animationManager = pdfView.getAnimationManager();
+        if (animationManager.isFreeFlinging()) {
+            float flingOffset = -MathUtils.max(animationManager.getFlingFinalOffset(), 0);
+            float currentOffset = pdfView.isSwipeVertical() ? yOffset : xOffset;
+            if (Math.abs(flingOffset - currentOffset) > viewLength) {
+                flingRangeList = pdfView.isSwipeVertical()
+                        ? getRenderRangeList(xOffset, flingOffset, preloadOffset, preloadOffset)
+                        : getRenderRangeList(flingOffset, yOffset, preloadOffset, preloadOffset);
+            }
+        }
 
         for (RenderRange range : rangeList) {
             loadThumbnail(range.page, false);
         }
+        if (flingRangeList != null) {
+            for (RenderRange range : flingRangeList) {
+                loadThumbnail(range.page, false);
+            }
+        }
+
+        int bytesPerPixel = pdfView.isBestQuality() ? 4 : 2;
+        maxParts = pdfView.cacheManager.getMaxParts((long) (Constants.PART_SIZE * Constants.PART_SIZE) * bytesPerPixel);
+        int parts = loadRanges(rangeList, 0);
+        if (flingRangeList != null) {
+            loadRanges(flingRangeList, parts);
+        }
+    }
 
+    private List<RenderRange> getRenderRangeList(float xOffset, float yOffset, float startPreloadOffset,
+                                                 float endPreloadOffset) {
+        float firstXOffset, lastXOffset, firstYOffset, lastYOffset;
+        if (pdfView.isSwipeVertical()) {
+            firstXOffset = -xOffset + preloadOffset;
+            lastXOffset = -xOffset - pdfView.getWidth() - preloadOffset;
+            firstYOffset = -yOffset + startPreloadOffset;
+            lastYOffset = -yOffset - pdfView.getHeight() - endPreloadOffset;
+        } else {
+            firstXOffset = -xOffset + startPreloadOffset;
+            lastXOffset = -xOffset - pdfView.getWidth() - endPreloadOffset;
+            firstYOffset = -yOffset + preloadOffset;
+            lastYOffset = -yOffset - pdfView.getHeight() - preloadOffset;
+        }
+        return getRenderRangeList(firstXOffset, firstYOffset, lastXOffset, lastYOffset);
+    }
+
+    private int loadRanges(List<RenderRange> rangeList, int parts) {
         for (RenderRange range : rangeList) {
+            if (parts >= maxParts) {
+                break;
+            }
+            calculatePageBounds(range.page);
             calculatePartSize(range.gridSize);
             parts += loadPage(
                     range.page,
@@ -265,12 +354,10 @@ class PagesLoader {
                     range.rightBottom.row,
                     range.leftTop.col,
                     range.rightBottom.col,
-                    CACHE_SIZE - parts
+                    maxParts - parts
             );
-            if (parts >= CACHE_SIZE) {
-                break;
-            }
         }
+        return parts;
     }
 
     private int loadPage(int page, int firstRow, int lastRow, int firstCol, int lastCol, int nbOfPartsLoadable) {
@@ -305,10 +392,17 @@ class PagesLoader {
         }
         renderWidth *= relWidth;
         renderHeight *= relHeight;
-        RectF pageRelativeBounds = new RectF(relX, relY, relX + relWidth, relY + relHeight);
 
         if (renderWidth > 0 && renderHeight > 0) {
-            if (!pdfView.cacheManager.upPartIfContained(page, pageRelativeBounds, cacheOrder)) {
+            long partKey = CacheManager.partKey(page, zoomLevel, row, col);
+            if (!pdfView.cacheManager.upPartIfContained(partKey, cacheOrder)) {
+                RectF pageRelativeBounds = new RectF(relX, relY, relX + relWidth, relY + relHeight);
+                float left = pageBounds.left + pageRelativeBounds.left * pageBounds.width();
+                float top = pageBounds.top + pageRelativeBounds.top * pageBounds.height();
+                float right = pageBounds.left + pageRelativeBounds.right * pageBounds.width();
+                float bottom = pageBounds.top + pageRelativeBounds.bottom * pageBounds.height();
+                boolean visible = left < viewportRight && right > viewportLeft
+                        && top < viewportBottom && bottom > viewportTop;
                 pdfView.renderingHandler.addRenderingTask(
                         page,
                         new RenderingSize(renderWidth, renderHeight, pageRelativeBounds),
@@ -316,7 +410,11 @@ class PagesLoader {
                         cacheOrder,
                         pdfView.isBestQuality(),
                         pdfView.isAnnotationRendering(),
-                        false
+                        false,
+                        zoomLevel,
+                        partKey,
+                        visible ? RenderingHandler.PRIORITY_VISIBLE : RenderingHandler.PRIORITY_PRELOAD,
+                        distanceToViewportCenter((left + right) / 2f, (top + bottom) / 2f)
                 );
             }
 
@@ -327,11 +425,18 @@ class PagesLoader {
     }
 
     private void loadThumbnail(int page, boolean isForPrinting) {
-        SizeF pageSize = pdfView.pdfFile.getPageSize(page);
         float thumbnailRatio = isForPrinting ? Constants.THUMBNAIL_RATIO_PRINTING : pdfView.getThumbnailRatio();
-        float thumbnailWidth = pageSize.getWidth() * thumbnailRatio;
-        float thumbnailHeight = pageSize.getHeight() * thumbnailRatio;
-        if (!pdfView.cacheManager.containsThumbnail(page, thumbnailRect)) {
+        float thumbnailWidth = pdfView.pdfFile.getPageWidth(page) * thumbnailRatio;
+        float thumbnailHeight = pdfView.pdfFile.getPageHeight(page) * thumbnailRatio;
+        if (!pdfView.cacheManager.containsThumbnail(page)) {
+            float distanceToCenter = 0;
+            if (!isForPrinting) {
+                calculatePageBounds(page);
+                distanceToCenter = distanceToViewportCenter(
+                        pageBounds.centerX(),
+                        pageBounds.centerY()
+                );
+            }
             pdfView.renderingHandler.addRenderingTask(
                     page,
                     new RenderingSize(thumbnailWidth, thumbnailHeight, thumbnailRect),
@@ -339,17 +444,25 @@ class PagesLoader {
                     0,
                     pdfView.isBestQuality(),
                     pdfView.isAnnotationRendering(),
-                    isForPrinting
+                    isForPrinting,
+                    0,
+                    0,
+                    RenderingHandler.PRIORITY_THUMBNAIL,
+                    distanceToCenter
             );
-        } else if (page == pdfView.getPageCount() - 1 && isForPrinting) {
-            pdfView.callbacks.callsOnReadyForPrinting(pdfView.getPagesAsBitmaps());
         }
     }
 
     void loadPages() {
         cacheOrder = 1;
+        zoomLevel = getZoomLevel(pdfView.getZoom());
+        levelZoom = getLevelZoom(zoomLevel);
         xOffset = -MathUtils.max(pdfView.getCurrentXOffset(), 0);
         yOffset = -MathUtils.max(pdfView.getCurrentYOffset(), 0);
+        viewportLeft = -pdfView.getCurrentXOffset();
+        viewportTop = -pdfView.getCurrentYOffset();
+        viewportRight = viewportLeft + pdfView.getWidth();
+        viewportBottom = viewportTop + pdfView.getHeight();
 
         loadVisible();
     }
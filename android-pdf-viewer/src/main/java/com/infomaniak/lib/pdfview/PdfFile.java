@@ -19,22 +19,43 @@ import android.graphics.Bitmap;
 import android.graphics.PointF;
 import android.graphics.Rect;
 import android.graphics.RectF;
+import android.util.Log;
 import android.util.SparseBooleanArray;
 
 import com.infomaniak.lib.pdfview.exception.PageRenderingException;
+import com.infomaniak.lib.pdfview.util.Constants;
 import com.infomaniak.lib.pdfview.util.PageSizeCalculator;
 import com.shockwave.pdfium.PdfDocument;
 import com.shockwave.pdfium.PdfiumCore;
 import com.shockwave.pdfium.util.Size;
 import com.shockwave.pdfium.util.SizeF;
 
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
 import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 public class PdfFile {
 
+    private static final String TAG = PdfFile.class.getSimpleName();
+
     private static final Object lock = new Object();
 
+    /**
+     * The pdfium bindings don't expose a way to close a single page, it's done through their internals,
+     * see {@link #closePage(int)}. They are kept from obfuscation by the consumer ProGuard rules.
+     * Resolved once, when the first document is opened. If they can't be found or closing a page fails,
+     * pages are never closed, as without this optimization, instead of failing to render.
+     */
+    private static Method nativeClosePage;
+    private static Field nativePagesPtr;
+    private static Object pdfiumLock;
+    private static boolean pageClosingResolved = false;
+    private static volatile boolean pageClosingAvailable = false;
+
     private PdfDocument pdfDocument;
     private PdfiumCore pdfiumCore;
     private int pagesCount = 0;
@@ -43,13 +64,31 @@ public class PdfFile {
      */
     private List<Size> originalPageSizes = new ArrayList<>();
     /**
-     * Scaled page sizes
+     * Pages whose original size is estimated until read from pdfium, null once every size is known
      */
-    private List<SizeF> pageSizes = new ArrayList<>();
+    private boolean[] estimatedPageSizes;
     /**
-     * Opened pages with indicator whether opening was successful
+     * Scaled page sizes, with their width and height also kept as primitives for the layout computations
      */
-    private SparseBooleanArray openedPages = new SparseBooleanArray();
+    private SizeF[] pageSizes = new SizeF[0];
+    private float[] pageWidths = new float[0];
+    private float[] pageHeights = new float[0];
+    /**
+     * Pages currently opened in pdfium, in least recently used order
+     */
+    private final LinkedHashMap<Integer, Boolean> openedPages = new LinkedHashMap<>(16, 0.75f, true);
+    /**
+     * Pages that could not be opened
+     */
+    private final SparseBooleanArray failedPages = new SparseBooleanArray();
+    /**
+     * Maximum number of pages kept opened at once, the least recently used ones are closed beyond it
+     */
+    private int maxOpenedPages = Constants.Cache.MAX_OPENED_PAGES;
+    /**
+     * False when the document has been opened by the app, which stays in charge of closing it
+     */
+    private boolean ownsDocument = true;
     /**
      * Page with maximum width
      */
@@ -69,11 +108,11 @@ public class PdfFile {
     /**
      * Calculated offsets for pages
      */
-    private List<Float> pageOffsets = new ArrayList<>();
+    private float[] pageOffsets = new float[0];
     /**
-     * Calculated auto spacing for pages
+     * Calculated spacing for pages, auto spacing or page separator spacing
      */
-    private List<Float> pageSpacing = new ArrayList<>();
+    private float[] pageSpacing = new float[0];
     /**
      * Calculated document length (width or height, depending on swipe mode)
      */
@@ -85,48 +124,243 @@ public class PdfFile {
      */
     private int[] originalUserPages;
     private DisplayOptions displayOptions;
+    /**
+     * Size of the view the page sizes have been calculated for
+     */
+    private Size viewSize;
+    /**
+     * Fingerprint of the document content, null if the source can't provide one
+     */
+    private final String fingerprint;
+    /**
+     * Stored page sizes of the documents already opened, null if the document can't be identified
+     */
+    private final LayoutIndex layoutIndex;
+    private int documentPagesCount;
 
     PdfFile(
             PdfiumCore pdfiumCore,
             PdfDocument pdfDocument,
             int[] originalUserPages,
-            DisplayOptions displayOptions
+            DisplayOptions displayOptions,
+            String fingerprint,
+            LayoutIndex layoutIndex,
+            int firstPage
     ) {
         this.pdfiumCore = pdfiumCore;
         this.pdfDocument = pdfDocument;
         this.originalUserPages = originalUserPages;
         this.displayOptions = displayOptions;
-        setup(this.displayOptions.getViewSize());
+        this.fingerprint = fingerprint;
+        this.layoutIndex = fingerprint != null ? layoutIndex : null;
+        resolvePageClosing();
+        setup(this.displayOptions.getViewSize(), firstPage);
+    }
+
+    public String getFingerprint() {
+        return fingerprint;
+    }
+
+    /**
+     * @return true if the displayed pages are all the pages of the document in their original order
+     */
+    public boolean isWholeDocument() {
+        if (originalUserPages == null) {
+            return true;
+        }
+        if (originalUserPages.length != documentPagesCount) {
+            return false;
+        }
+        for (int i = 0; i < originalUserPages.length; i++) {
+            if (originalUserPages[i] != i) {
+                return false;
+            }
+        }
+        return true;
     }
 
-    private void setup(Size viewSize) {
+    /**
+     * Take the page sizes from the layout index when the document has already been opened. Otherwise read
+     * the size of the pages around the first displayed page, the size of the other pages is estimated
+     * from it until {@link #applyPageSizes(int, Size[])} is called with their actual size.
+     */
+    private void setup(Size viewSize, int firstPage) {
+        documentPagesCount = pdfiumCore.getPageCount(pdfDocument);
         if (originalUserPages != null) {
             pagesCount = originalUserPages.length;
         } else {
-            pagesCount = pdfiumCore.getPageCount(pdfDocument);
+            pagesCount = documentPagesCount;
+        }
+
+        if (setupFromLayoutIndex()) {
+            recalculatePageSizes(viewSize);
+            return;
         }
 
+        int start = 0;
+        int end = pagesCount;
+        if (pagesCount > Constants.EAGER_PAGE_SIZES) {
+            start = Math.max(0, Math.min(firstPage - Constants.EAGER_PAGE_SIZES / 2,
+                    pagesCount - Constants.EAGER_PAGE_SIZES));
+            end = start + Constants.EAGER_PAGE_SIZES;
+            estimatedPageSizes = new boolean[pagesCount];
+        }
+
+        Size[] sizes = readPageSizes(start, end);
+        Size estimatedSize = estimatedPageSizes != null
+                ? sizes[Math.max(0, Math.min(firstPage - start, sizes.length - 1))]
+                : null;
         for (int i = 0; i < pagesCount; i++) {
-            Size pageSize = pdfiumCore.getPageSize(pdfDocument, documentPage(i));
-            if (pageSize.getWidth() > originalMaxWidthPageSize.getWidth()) {
-                originalMaxWidthPageSize = pageSize;
-            }
-            if (pageSize.getHeight() > originalMaxHeightPageSize.getHeight()) {
-                originalMaxHeightPageSize = pageSize;
+            Size pageSize;
+            if (i >= start && i < end) {
+                pageSize = sizes[i - start];
+            } else {
+                pageSize = estimatedSize;
+                estimatedPageSizes[i] = true;
             }
+            updateOriginalMaxPageSizes(pageSize);
             originalPageSizes.add(pageSize);
         }
 
+        if (estimatedPageSizes == null) {
+            writeLayoutIndex(sizes);
+        }
         recalculatePageSizes(viewSize);
     }
 
+    /**
+     * @return true if the size of every page has been found in the layout index
+     */
+    private boolean setupFromLayoutIndex() {
+        if (layoutIndex == null) {
+            return false;
+        }
+        Size[] documentSizes = layoutIndex.read(fingerprint, documentPagesCount);
+        if (documentSizes == null) {
+            return false;
+        }
+        List<Size> sizes = new ArrayList<>(pagesCount);
+        for (int i = 0; i < pagesCount; i++) {
+            int docPage = documentPage(i);
+            Size pageSize = docPage >= 0 ? documentSizes[docPage] : null;
+            if (pageSize == null) {
+                return false;
+            }
+            sizes.add(pageSize);
+        }
+        for (Size pageSize : sizes) {
+            updateOriginalMaxPageSizes(pageSize);
+        }
+        originalPageSizes.addAll(sizes);
+        return true;
+    }
+
+    /**
+     * Store the original size of all the pages in the layout index, can be called from any thread
+     *
+     * @param sizes the original size of every page, as read by {@link #readPageSizes(int, int)}
+     */
+    void writeLayoutIndex(Size[] sizes) {
+        if (layoutIndex == null) {
+            return;
+        }
+        Size[] documentSizes = new Size[documentPagesCount];
+        for (int i = 0; i < sizes.length; i++) {
+            int docPage = documentPage(i);
+            if (docPage >= 0) {
+                documentSizes[docPage] = sizes[i];
+            }
+        }
+        layoutIndex.write(fingerprint, documentSizes);
+    }
+
+    private void updateOriginalMaxPageSizes(Size pageSize) {
+        if (pageSize.getWidth() > originalMaxWidthPageSize.getWidth()) {
+            originalMaxWidthPageSize = pageSize;
+        }
+        if (pageSize.getHeight() > originalMaxHeightPageSize.getHeight()) {
+            originalMaxHeightPageSize = pageSize;
+        }
+    }
+
+    /**
+     * Read the original size of the pages in the range from pdfium, can be called from any thread
+     *
+     * @param start first page of the range
+     * @param end   page after the last page of the range
+     * @return the sizes, or null if the document has been closed in between
+     */
+    Size[] readPageSizes(int start, int end) {
+        Size[] sizes = new Size[end - start];
+        for (int i = start; i < end; i++) {
+            synchronized (lock) {
+                if (pdfDocument == null) {
+                    return null;
+                }
+                sizes[i - start] = pdfiumCore.getPageSize(pdfDocument, documentPage(i));
+            }
+        }
+        return sizes;
+    }
+
+    public boolean hasEstimatedPageSizes() {
+        return estimatedPageSizes != null;
+    }
+
+    /**
+     * Replace the estimated size of the pages in the range by their actual size, and recalculate the layout
+     * if any of them was wrong
+     *
+     * @param start first page of the range
+     * @param sizes actual original sizes of the pages of the range, see {@link #readPageSizes(int, int)}
+     * @return the pages whose size changed
+     */
+    List<Integer> applyPageSizes(int start, Size[] sizes) {
+        List<Integer> changedPages = new ArrayList<>();
+        if (estimatedPageSizes == null) {
+            return changedPages;
+        }
+        for (int i = 0; i < sizes.length; i++) {
+            int page = start + i;
+            if (!estimatedPageSizes[page]) {
+                continue;
+            }
+            estimatedPageSizes[page] = false;
+            if (!sizes[i].equals(originalPageSizes.get(page))) {
+                originalPageSizes.set(page, sizes[i]);
+                updateOriginalMaxPageSizes(sizes[i]);
+                changedPages.add(page);
+            }
+        }
+        if (!changedPages.isEmpty()) {
+            recalculatePageSizes(viewSize);
+        }
+        if (start + sizes.length >= pagesCount) {
+            estimatedPageSizes = null;
+        }
+        return changedPages;
+    }
+
+    /**
+     * Read synchronously the actual size of every page whose size is still estimated
+     *
+     * @return the pages whose size changed
+     */
+    List<Integer> readRemainingPageSizes() {
+        if (estimatedPageSizes == null) {
+            return new ArrayList<>();
+        }
+        Size[] sizes = readPageSizes(0, pagesCount);
+        return sizes != null ? applyPageSizes(0, sizes) : new ArrayList<Integer>();
+    }
+
     /**
      * Call after view size change to recalculate page sizes, offsets and document length
      *
      * @param viewSize new size of changed view
      */
     public void recalculatePageSizes(Size viewSize) {
-        pageSizes.clear();
+        this.viewSize = viewSize;
         PageSizeCalculator calculator = new PageSizeCalculator(
                 displayOptions.getPageFitPolicy(),
                 originalMaxWidthPageSize,
@@ -137,16 +371,27 @@ public class PdfFile {
         maxWidthPageSize = calculator.getOptimalMaxWidthPageSize();
         maxHeightPageSize = calculator.getOptimalMaxHeightPageSize();
 
-        for (Size size : originalPageSizes) {
-            pageSizes.add(calculator.calculate(size));
-        }
-        if (displayOptions.getPdfSpacing().getAutoSpacing()) {
-            prepareAutoSpacing(viewSize);
+        pageSizes = new SizeF[pagesCount];
+        pageWidths = new float[pagesCount];
+        pageHeights = new float[pagesCount];
+        for (int i = 0; i < pagesCount; i++) {
+            SizeF pageSize = calculator.calculate(originalPageSizes.get(i));
+            pageSizes[i] = pageSize;
+            pageWidths[i] = pageSize.getWidth();
+            pageHeights[i] = pageSize.getHeight();
         }
+        prepareSpacing(viewSize);
         prepareDocLen();
         preparePagesOffset();
     }
 
+    /**
+     * @return the number of pages of the document, ignoring the pages selected for display
+     */
+    public int getDocumentPagesCount() {
+        return documentPagesCount;
+    }
+
     public int getPagesCount() {
         return pagesCount;
     }
@@ -156,24 +401,50 @@ public class PdfFile {
         if (docPage < 0) {
             return new SizeF(0, 0);
         }
-        return pageSizes.get(pageIndex);
+        return pageSizes[pageIndex];
+    }
+
+    /**
+     * Same as {@code getPageSize(pageIndex).getWidth()}, without any allocation
+     */
+    public float getPageWidth(int pageIndex) {
+        return documentPage(pageIndex) < 0 ? 0 : pageWidths[pageIndex];
+    }
+
+    /**
+     * Same as {@code getPageSize(pageIndex).getHeight()}, without any allocation
+     */
+    public float getPageHeight(int pageIndex) {
+        return documentPage(pageIndex) < 0 ? 0 : pageHeights[pageIndex];
+    }
+
+    /**
+     * Get the bounds of the page in the whole document at the given zoom, without any allocation
+     *
+     * @param outBounds rect receiving the bounds
+     */
+    public void getPageBounds(int pageIndex, float zoom, RectF outBounds) {
+        float primaryOffset = getPageOffset(pageIndex, zoom);
+        float secondaryOffset = getSecondaryPageOffset(pageIndex, zoom);
+        float left = displayOptions.isVertical() ? secondaryOffset : primaryOffset;
+        float top = displayOptions.isVertical() ? primaryOffset : secondaryOffset;
+        outBounds.set(left, top, left + getPageWidth(pageIndex) * zoom, top + getPageHeight(pageIndex) * zoom);
     }
 
     /**
      * Get page width & height in PostScript points (1/72th of an inch).<br>
-     * This method requires page to be opened.
+     * The page is opened if needed.
      */
     public SizeF getPageSizePoint(int pageIndex) {
         int docPage = documentPage(pageIndex);
-        if (docPage < 0) {
-            return new SizeF(0, 0);
-        }
-        if (pdfDocument == null) {
-            return new SizeF(0, 0);
+        synchronized (lock) {
+            if (pdfDocument == null || !ensurePageOpened(pageIndex, docPage)) {
+                return new SizeF(0, 0);
+            }
+            int width = pdfiumCore.getPageWidthPoint(pdfDocument, docPage);
+            int height = pdfiumCore.getPageHeightPoint(pdfDocument, docPage);
+            return new SizeF(width, height);
         }
-        int width = pdfiumCore.getPageWidthPoint(pdfDocument, pageIndex);
-        int height = pdfiumCore.getPageHeightPoint(pdfDocument, pageIndex);
-        return new SizeF(width, height);
     }
 
     public SizeF getScaledPageSize(int pageIndex, float zoom) {
@@ -198,26 +469,28 @@ public class PdfFile {
         return getMaxPageSize().getHeight();
     }
 
-    private void prepareAutoSpacing(Size viewSize) {
-        pageSpacing.clear();
-        for (int i = 0; i < getPagesCount(); i++) {
-            SizeF pageSize = pageSizes.get(i);
-            float spacing = Math.max(0, displayOptions.isVertical() ? viewSize.getHeight() - pageSize.getHeight() :
-                    viewSize.getWidth() - pageSize.getWidth());
-            if (i < getPagesCount() - 1) {
+    private void prepareSpacing(Size viewSize) {
+        pageSpacing = new float[pagesCount];
+        for (int i = 0; i < pagesCount; i++) {
+            if (!displayOptions.getPdfSpacing().getAutoSpacing()) {
+                pageSpacing[i] = displayOptions.getPdfSpacing().getPageSeparatorSpacing();
+                continue;
+            }
+            float spacing = Math.max(0, displayOptions.isVertical() ? viewSize.getHeight() - pageHeights[i] :
+                    viewSize.getWidth() - pageWidths[i]);
+            if (i < pagesCount - 1) {
                 spacing += displayOptions.getPdfSpacing().getPageSeparatorSpacing();
             }
-            pageSpacing.add(spacing);
+            pageSpacing[i] = spacing;
         }
     }
 
     private void prepareDocLen() {
         float length = 0;
         for (int i = 0; i < getPagesCount(); i++) {
-            SizeF pageSize = pageSizes.get(i);
-            length += displayOptions.isVertical() ? pageSize.getHeight() : pageSize.getWidth();
+            length += displayOptions.isVertical() ? pageHeights[i] : pageWidths[i];
             if (displayOptions.getPdfSpacing().getAutoSpacing()) {
-                length += pageSpacing.get(i);
+                length += pageSpacing[i];
             } else if (i < getPagesCount() - 1) {
                 length += displayOptions.getPdfSpacing().getPageSeparatorSpacing();
             }
@@ -227,27 +500,26 @@ public class PdfFile {
     }
 
     private void preparePagesOffset() {
-        pageOffsets.clear();
+        pageOffsets = new float[pagesCount];
         float offset = 0;
         for (int i = 0; i < getPagesCount(); i++) {
-            SizeF pageSize = pageSizes.get(i);
-            float size = displayOptions.isVertical() ? pageSize.getHeight() : pageSize.getWidth();
+            float size = displayOptions.isVertical() ? pageHeights[i] : pageWidths[i];
             if (displayOptions.getPdfSpacing().getAutoSpacing()) {
-                offset += pageSpacing.get(i) / 2f;
+                offset += pageSpacing[i] / 2f;
                 if (i == 0) {
                     offset -= displayOptions.getPdfSpacing().getPageSeparatorSpacing() / 2f;
                 } else if (i == getPagesCount() - 1) {
                     offset += displayOptions.getPdfSpacing().getPageSeparatorSpacing() / 2f;
                 }
-                pageOffsets.add(offset);
-                offset += size + pageSpacing.get(i) / 2f;
+                pageOffsets[i] = offset;
+                offset += size + pageSpacing[i] / 2f;
             } else {
                 // Adding a space at the beginning to be able to zoom out with a space between the top of the screen
                 // and the first page of the PDF
                 if (i == 0) {
                     offset += displayOptions.getPdfSpacing().getStartSpacing();
                 }
-                pageOffsets.add(offset);
+                pageOffsets[i] = offset;
                 offset += size + displayOptions.getPdfSpacing().getPageSeparatorSpacing();
             }
         }
@@ -261,18 +533,11 @@ public class PdfFile {
      * Get the page's height if swiping vertical, or width if swiping horizontal.
      */
     public float getPageLength(int pageIndex, float zoom) {
-        SizeF size = getPageSize(pageIndex);
-        return (displayOptions.isVertical() ? size.getHeight() : size.getWidth()) * zoom;
+        return (displayOptions.isVertical() ? getPageHeight(pageIndex) : getPageWidth(pageIndex)) * zoom;
     }
 
     public float getPageSpacing(int pageIndex, float zoom) {
-        float spacing;
-        if (displayOptions.getPdfSpacing().getAutoSpacing()) {
-            spacing = pageSpacing.get(pageIndex);
-        } else {
-            spacing = displayOptions.getPdfSpacing().getPageSeparatorSpacing();
-        }
-        return spacing * zoom;
+        return pageSpacing[pageIndex] * zoom;
     }
 
     /**
@@ -283,33 +548,48 @@ public class PdfFile {
         if (docPage < 0) {
             return 0;
         }
-        return pageOffsets.get(pageIndex) * zoom;
+        return pageOffsets[pageIndex] * zoom;
     }
 
     /**
      * Get secondary page offset, that is X for vertical scroll and Y for horizontal scroll
      */
     public float getSecondaryPageOffset(int pageIndex, float zoom) {
-        SizeF pageSize = getPageSize(pageIndex);
         if (displayOptions.isVertical()) {
             float maxWidth = getMaxPageWidth();
-            return zoom * (maxWidth - pageSize.getWidth()) / 2; //x
+            return zoom * (maxWidth - getPageWidth(pageIndex)) / 2; //x
         } else {
             float maxHeight = getMaxPageHeight();
-            return zoom * (maxHeight - pageSize.getHeight()) / 2; //y
+            return zoom * (maxHeight - getPageHeight(pageIndex)) / 2; //y
         }
     }
 
+    /**
+     * Get the last page starting before the offset, pages start half of their spacing before their offset
+     */
     public int getPageAtOffset(float offset, float zoom) {
-        int currentPage = 0;
-        for (int i = 0; i < getPagesCount(); i++) {
-            float off = pageOffsets.get(i) * zoom - getPageSpacing(i, zoom) / 2f;
-            if (off >= offset) {
-                break;
+        return getPageAtOffset(pageOffsets, pageSpacing, getPagesCount(), offset, zoom);
+    }
+
+    /**
+     * @param pageOffsets offset of each page at zoom 1
+     * @param pageSpacing spacing around each page at zoom 1
+     * @param pagesCount  number of pages
+     */
+    static int getPageAtOffset(float[] pageOffsets, float[] pageSpacing, int pagesCount, float offset, float zoom) {
+        // Page starts are increasing, binary search the first one not before the offset
+        int low = 0;
+        int high = pagesCount;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            float pageStart = pageOffsets[middle] * zoom - pageSpacing[middle] * zoom / 2f;
+            if (pageStart >= offset) {
+                high = middle;
+            } else {
+                low = middle + 1;
             }
-            currentPage++;
         }
-        return --currentPage >= 0 ? currentPage : 0;
+        return low - 1 >= 0 ? low - 1 : 0;
     }
 
     public boolean openPage(int pageIndex) throws PageRenderingException {
@@ -319,29 +599,179 @@ public class PdfFile {
         }
 
         synchronized (lock) {
-            if (openedPages.indexOfKey(docPage) < 0) {
-                try {
-                    pdfiumCore.openPage(pdfDocument, docPage);
-                    openedPages.put(docPage, true);
-                    return true;
-                } catch (Exception e) {
-                    openedPages.put(docPage, false);
-                    throw new PageRenderingException(pageIndex, e);
-                }
+            if (pdfDocument == null) {
+                // Disposed from another thread
+                return false;
             }
+            return openDocumentPage(pageIndex, docPage);
+        }
+    }
+
+    /**
+     * Open the page if needed and mark it as the most recently used one, must be called with the lock held
+     *
+     * @return true if the page has been opened by this call
+     */
+    private boolean openDocumentPage(int pageIndex, int docPage) throws PageRenderingException {
+        if (failedPages.get(docPage, false) || openedPages.get(docPage) != null) {
             return false;
         }
+        try {
+            pdfiumCore.openPage(pdfDocument, docPage);
+        } catch (Exception e) {
+            failedPages.put(docPage, true);
+            throw new PageRenderingException(pageIndex, e);
+        }
+        openedPages.put(docPage, true);
+        closeLeastRecentlyUsedPages(maxOpenedPages);
+        return true;
+    }
+
+    private void closeLeastRecentlyUsedPages(int maxPages) {
+        if (!ownsDocument || pdfDocument == null) {
+            // The pages of a document opened by the app may be used by the app, they're left opened
+            return;
+        }
+        if (!pageClosingAvailable) {
+            return;
+        }
+        Iterator<Integer> iterator = openedPages.keySet().iterator();
+        while (openedPages.size() > maxPages && iterator.hasNext()) {
+            closePage(iterator.next());
+            iterator.remove();
+        }
+    }
+
+    private void closePage(int docPage) {
+        try {
+            // Same lock as the bindings use to open pages and to close the document
+            synchronized (pdfiumLock) {
+                @SuppressWarnings("unchecked")
+                Map<Integer, Long> pagesPtr = (Map<Integer, Long>) nativePagesPtr.get(pdfDocument);
+                Long pagePtr = pagesPtr.remove(docPage);
+                if (pagePtr != null) {
+                    nativeClosePage.invoke(pdfiumCore, pagePtr);
+                }
+            }
+        } catch (Exception e) {
+            // The remaining pages stay opened, they are still rendered
+            pageClosingAvailable = false;
+            Log.w(TAG, "Cannot close page " + docPage + ", pages won't be closed anymore", e);
+        }
+    }
+
+    /**
+     * Find the internals of the pdfium bindings closing a page, once. If they have changed,
+     * the opened pages aren't bounded anymore.
+     */
+    private static synchronized void resolvePageClosing() {
+        if (pageClosingResolved) {
+            return;
+        }
+        pageClosingResolved = true;
+        try {
+            Method method = PdfiumCore.class.getDeclaredMethod("nativeClosePage", long.class);
+            method.setAccessible(true);
+            Field field = PdfDocument.class.getDeclaredField("mNativePagesPtr");
+            field.setAccessible(true);
+            Field lockField = PdfiumCore.class.getDeclaredField("lock");
+            lockField.setAccessible(true);
+            nativeClosePage = method;
+            nativePagesPtr = field;
+            pdfiumLock = lockField.get(null);
+            pageClosingAvailable = true;
+        } catch (Exception e) {
+            Log.w(TAG, "Pages can't be closed with these pdfium bindings, they'll all be kept opened. "
+                    + "Check the ProGuard rules keeping PdfiumCore and PdfDocument", e);
+        }
+    }
+
+    /**
+     * @param ownsDocument false to leave the document open on {@link #dispose()}, when it has been
+     *                     opened by the app
+     */
+    public void setOwnsDocument(boolean ownsDocument) {
+        this.ownsDocument = ownsDocument;
+    }
+
+    /**
+     * Set the maximum number of pages kept opened in pdfium at once (at least 1),
+     * the least recently used pages are closed beyond it and opened again when needed
+     */
+    public void setMaxOpenedPages(int maxOpenedPages) {
+        if (maxOpenedPages < 1) throw new IllegalArgumentException("maxOpenedPages must be greater than 0");
+        synchronized (lock) {
+            this.maxOpenedPages = maxOpenedPages;
+            closeLeastRecentlyUsedPages(maxOpenedPages);
+        }
+    }
+
+    /**
+     * Close all the opened pages to free their native memory, they are opened again when needed
+     */
+    public void closeOpenedPages() {
+        synchronized (lock) {
+            closeLeastRecentlyUsedPages(0);
+        }
     }
 
     public boolean pageHasError(int pageIndex) {
         int docPage = documentPage(pageIndex);
-        return !openedPages.get(docPage, false);
+        synchronized (lock) {
+            return failedPages.get(docPage, false);
+        }
     }
 
     public void renderPageBitmap(Bitmap bitmap, int pageIndex, Rect bounds, boolean annotationRendering) {
+        renderPageBitmap(bitmap, pageIndex, bounds, annotationRendering, null);
+    }
+
+    /**
+     * Render the page, unless the rendering is aborted while waiting for the renderings of the other threads
+     *
+     * @param abortSignal checked once the lock is held, null to always render
+     * @return false if the rendering has been aborted, the bitmap is left untouched
+     */
+    public boolean renderPageBitmap(Bitmap bitmap, int pageIndex, Rect bounds, boolean annotationRendering,
+                                    AbortSignal abortSignal) {
         int docPage = documentPage(pageIndex);
-        pdfiumCore.renderPageBitmap(pdfDocument, bitmap, docPage,
-                bounds.left, bounds.top, bounds.width(), bounds.height(), annotationRendering);
+        synchronized (lock) {
+            if (abortSignal != null && abortSignal.isAborted()) {
+                return false;
+            }
+            // The page may have been closed since it has been opened for this rendering
+            if (!ensurePageOpened(pageIndex, docPage)) {
+                return true;
+            }
+            pdfiumCore.renderPageBitmap(pdfDocument, bitmap, docPage,
+                    bounds.left, bounds.top, bounds.width(), bounds.height(), annotationRendering);
+            return true;
+        }
+    }
+
+    /**
+     * Tells whether a rendering waiting for its turn is still needed
+     */
+    public interface AbortSignal {
+        boolean isAborted();
+    }
+
+    /**
+     * Must be called with the lock held
+     *
+     * @return false if the page can't be opened
+     */
+    private boolean ensurePageOpened(int pageIndex, int docPage) {
+        if (docPage < 0 || pdfDocument == null) {
+            // Invalid page, or document already disposed
+            return false;
+        }
+        try {
+            openDocumentPage(pageIndex, docPage);
+        } catch (PageRenderingException e) {
+            return false;
+        }
+        return true;
     }
 
     public PdfDocument.Meta getMetaData() {
@@ -360,21 +790,37 @@ public class PdfFile {
 
     public List<PdfDocument.Link> getPageLinks(int pageIndex) {
         int docPage = documentPage(pageIndex);
-        return pdfiumCore.getPageLinks(pdfDocument, docPage);
+        synchronized (lock) {
+            if (!ensurePageOpened(pageIndex, docPage)) {
+                return new ArrayList<>();
+            }
+            return pdfiumCore.getPageLinks(pdfDocument, docPage);
+        }
     }
 
     public RectF mapRectToDevice(int pageIndex, int startX, int startY, int sizeX, int sizeY,
                                  RectF rect) {
         int docPage = documentPage(pageIndex);
-        return pdfiumCore.mapRectToDevice(pdfDocument, docPage, startX, startY, sizeX, sizeY, 0, rect);
+        synchronized (lock) {
+            // The page may have been closed, or the document disposed from another thread
+            if (!ensurePageOpened(pageIndex, docPage)) {
+                return new RectF();
+            }
+            return pdfiumCore.mapRectToDevice(pdfDocument, docPage, startX, startY, sizeX, sizeY, 0, rect);
+        }
     }
 
     public void dispose() {
-        if (pdfiumCore != null && pdfDocument != null) {
-            pdfiumCore.closeDocument(pdfDocument);
-        }
+        synchronized (lock) {
+            // Closing the document closes its remaining pages
+            openedPages.clear();
+            failedPages.clear();
+            if (ownsDocument && pdfiumCore != null && pdfDocument != null) {
+                pdfiumCore.closeDocument(pdfDocument);
+            }
 
-        pdfDocument = null;
+            pdfDocument = null;
+        }
         originalUserPages = null;
     }
 
@@ -424,11 +870,18 @@ public class PdfFile {
      */
     public PointF mapDeviceCoordsToPage(int pageIndex, int startX, int startY, int sizeX,
                                         int sizeY, int rotate, int deviceX, int deviceY, boolean leftTop) {
-        PointF psPoint = pdfiumCore.mapDeviceCoordsToPage(pdfDocument, pageIndex, startX, startY, sizeX, sizeY, rotate, deviceX, deviceY);
-        if (leftTop) {
-            int pdfHeight = pdfiumCore.getPageHeightPoint(pdfDocument, pageIndex);
-            psPoint = new PointF(psPoint.x, pdfHeight - psPoint.y);
+        int docPage = documentPage(pageIndex);
+        synchronized (lock) {
+            // The page may have been closed as one of the least recently used
+            if (!ensurePageOpened(pageIndex, docPage)) {
+                return new PointF();
+            }
+            PointF psPoint = pdfiumCore.mapDeviceCoordsToPage(pdfDocument, docPage, startX, startY, sizeX, sizeY, rotate, deviceX, deviceY);
+            if (leftTop) {
+                int pdfHeight = pdfiumCore.getPageHeightPoint(pdfDocument, docPage);
+                psPoint = new PointF(psPoint.x, pdfHeight - psPoint.y);
+            }
+            return psPoint;
         }
-        return psPoint;
     }
 }
@@ -19,31 +19,73 @@
 package com.infomaniak.lib.pdfview
 
 import android.graphics.Bitmap
-import android.graphics.Matrix
+import android.graphics.Canvas
 import android.graphics.Rect
 import android.graphics.RectF
-import android.os.Handler
-import android.os.Looper
-import android.os.Message
 import android.util.Log
 import com.infomaniak.lib.pdfview.RenderingHandler.RenderingTask
 import com.infomaniak.lib.pdfview.exception.PageRenderingException
 import com.infomaniak.lib.pdfview.model.PagePart
+import com.infomaniak.lib.pdfview.util.Constants.RENDERING_THREADS
+import com.infomaniak.lib.pdfview.util.Constants.RENDER_SLICE_HEIGHT
+import com.infomaniak.lib.pdfview.util.Constants.RENDER_SLICE_MIN_PIXELS
+import java.util.concurrent.PriorityBlockingQueue
+import java.util.concurrent.ThreadFactory
+import java.util.concurrent.ThreadPoolExecutor
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
 
 /**
- * A [Handler] that will process incoming [RenderingTask] messages
- * and alert [PDFView.onBitmapRendered] when the portion of the
+ * Dispatches [RenderingTask]s to a pool of rendering threads
+ * and alerts [PDFView.onBitmapRendered] when the portion of the
  * PDF is ready to render.
+ *
+ * Pdfium is not thread-safe, so the renderings are serialized by the lock of [PdfFile]: only one bitmap
+ * is rendered at a time. The [RENDERING_THREADS] threads only overlap the bitmap allocation, the disk cache
+ * and the delivery of a task with the rendering of another one. The queries made on the main thread
+ * through [PdfFile] wait for the rendering in progress, which is kept short by rendering the parts
+ * of a zoomed page separately.
+ *
+ * Pending tasks are ordered by priority, see [PRIORITY_VISIBLE], [PRIORITY_THUMBNAIL] and [PRIORITY_PRELOAD],
+ * then by distance to the center of the viewport. Each call to [PDFView.loadPages] is a render pass:
+ * the tasks that have not been requested again during the latest pass are cancelled by [cancelStaleTasks].
+ *
+ * A part that is already queued or being rendered is never queued twice: requesting it again
+ * only updates the priority and the cache order of the existing task.
+ *
+ * When the disk cache is enabled, bitmaps are read from it instead of being rendered when possible,
+ * and written to it once rendered.
+ *
+ * A task cancelled or stopped gives up as soon as it gets the pdfium lock, without rendering: as renderings
+ * are serialized, a task spends most of its time waiting for the renderings of the other threads, and that's
+ * where cancelled parts and thumbnails are dropped. Bitmaps larger than [RENDER_SLICE_MIN_PIXELS] are also
+ * rendered by horizontal slices of [RENDER_SLICE_HEIGHT] pixels, checking between two slices, so that a large
+ * rendering can be interrupted too. Parts and thumbnails stay below that threshold and are rendered in a
+ * single call, as each slice costs a whole rendering of the page content.
  */
 internal class RenderingHandler(
-    looper: Looper?,
     private val pdfView: PDFView,
-) : Handler(looper!!) {
-    private val renderBounds = RectF()
-    private val roundedRenderBounds = Rect()
-    private val renderMatrix = Matrix()
+) {
+    private val executor = ThreadPoolExecutor(
+        RENDERING_THREADS,
+        RENDERING_THREADS,
+        0L,
+        TimeUnit.MILLISECONDS,
+        PriorityBlockingQueue(),
+        RenderingThreadFactory(),
+    ).apply { prestartAllCoreThreads() }
+
+    @Volatile
     private var running = false
 
+    private var renderPass = 0
+    private var taskSequence = 0L
+
+    /**
+     * Tasks queued or being rendered, guarded by itself
+     */
+    private val inFlightTasks = HashMap<TaskKey, RenderingTask>()
+
     fun addRenderingTask(
         page: Int,
         renderingSize: RenderingSize,
@@ -52,20 +94,118 @@ internal class RenderingHandler(
         bestQuality: Boolean,
         annotationRendering: Boolean,
         isForPrinting: Boolean,
+        zoomLevel: Int,
+        cacheKey: Long,
+        priority: Int,
+        distanceToCenter: Float,
     ) {
-        val task = RenderingTask(
-            renderingSize,
-            page,
-            thumbnail,
-            cacheOrder,
-            bestQuality,
-            annotationRendering,
-            isForPrinting,
-        )
-        val msg = obtainMessage(MSG_RENDER_TASK, task)
-        sendMessage(msg)
+        val key = TaskKey(page, thumbnail, isForPrinting, zoomLevel, renderingSize.bounds)
+        synchronized(inFlightTasks) {
+            inFlightTasks[key]?.let { task ->
+                mergeTask(task, cacheOrder, priority, distanceToCenter)
+                return
+            }
+
+            val task = RenderingTask(
+                key,
+                renderingSize,
+                page,
+                thumbnail,
+                cacheOrder,
+                bestQuality,
+                annotationRendering,
+                isForPrinting,
+                zoomLevel,
+                cacheKey,
+                priority,
+                distanceToCenter,
+                renderPass,
+                taskSequence++,
+            )
+            inFlightTasks[key] = task
+            executor.execute(task)
+        }
+    }
+
+    private fun mergeTask(task: RenderingTask, cacheOrder: Int, priority: Int, distanceToCenter: Float) {
+        task.cacheOrder = cacheOrder
+        task.renderPass = renderPass
+        // The ordering of a queued task can only change while it's out of the queue
+        if (executor.remove(task)) {
+            task.priority = priority
+            task.distanceToCenter = distanceToCenter
+            executor.execute(task)
+        }
+    }
+
+    /**
+     * Remove every task that has not been picked up by a rendering thread yet.
+     */
+    fun removeRenderingTasks() {
+        synchronized(inFlightTasks) {
+            for (runnable in executor.queue) cancelTask(runnable as RenderingTask)
+        }
+    }
+
+    /**
+     * Start a new render pass, the tasks added from now on belong to it.
+     */
+    fun beginRenderPass() {
+        renderPass++
+    }
+
+    /**
+     * Cancel, one by one, the pending tasks and the renderings in progress that were not requested
+     * during the current render pass. Printing tasks are never cancelled this way.
+     */
+    fun cancelStaleTasks() {
+        synchronized(inFlightTasks) {
+            val iterator = inFlightTasks.values.iterator()
+            while (iterator.hasNext()) {
+                val task = iterator.next()
+                if (task.renderPass != renderPass && !task.isForPrinting) {
+                    task.cancelled = true
+                    executor.remove(task)
+                    iterator.remove()
+                }
+            }
+        }
+    }
+
+    /**
+     * Cancel the pending tasks and the renderings in progress whose bounds were computed for a layout
+     * that has been recalculated: every part, and the thumbnails of the pages whose size changed.
+     * Printing tasks are kept. A cancelled rendering that completes anyway is dropped before being cached.
+     */
+    fun cancelLayoutTasks(changedPages: Collection<Int>) {
+        synchronized(inFlightTasks) {
+            val iterator = inFlightTasks.values.iterator()
+            while (iterator.hasNext()) {
+                val task = iterator.next()
+                if (!task.isForPrinting && (!task.thumbnail || task.page in changedPages)) {
+                    task.cancelled = true
+                    executor.remove(task)
+                    iterator.remove()
+                }
+            }
+        }
+    }
+
+    private fun cancelTask(task: RenderingTask) {
+        task.cancelled = true
+        executor.remove(task)
+        removeInFlightTask(task)
+    }
+
+    private fun removeInFlightTask(task: RenderingTask) {
+        synchronized(inFlightTasks) {
+            if (inFlightTasks[task.key] === task) inFlightTasks.remove(task.key)
+        }
     }
 
+    /**
+     * Stop delivering rendered parts, renderings waiting for their turn are aborted, large ones also at their next slice.
+     */
     fun stop() {
         running = false
     }
@@ -74,36 +214,57 @@ internal class RenderingHandler(
         running = true
     }
 
-    override fun handleMessage(message: Message): Unit = with(pdfView) {
-        val task = message.obj as RenderingTask
-        runCatching {
-            proceed(task)?.let { pagePart ->
-                if (running) {
-                    post { onBitmapRendered(pagePart, task.isForPrinting) }
-                } else {
-                    pagePart.renderedBitmap.recycle()
+    /**
+     * Stop the rendering threads, pending tasks are dropped.
+     */
+    fun shutdown() {
+        stop()
+        executor.shutdownNow()
+    }
+
+    private fun handleTask(task: RenderingTask) {
+        if (isAborted(task)) {
+            removeInFlightTask(task)
+            return
+        }
+        with(pdfView) {
+            runCatching {
+                val pagePart = proceed(task)
+                if (pagePart != null && running) {
+                    // Stay in flight until cached, so that the part is not requested again in between
+                    post {
+                        removeInFlightTask(task)
+                        // Cancelled from the main thread while being delivered, its bounds may be outdated
+                        if (task.cancelled) {
+                            bitmapPool.release(pagePart.renderedBitmap)
+                        } else {
+                            onBitmapRendered(pagePart, task.isForPrinting)
+                        }
+                    }
+                    return
                 }
+                pagePart?.let { bitmapPool.release(it.renderedBitmap) }
+            }.onFailure { exception ->
+                if (exception is PageRenderingException) post { onPageError(exception) }
             }
-        }.onFailure { exception ->
-            if (exception is PageRenderingException) post { onPageError(exception) }
         }
+        removeInFlightTask(task)
     }
 
     @Throws(PageRenderingException::class)
     private fun proceed(renderingTask: RenderingTask): PagePart? {
         val pdfFile = pdfView.pdfFile
-        pdfFile.openPage(renderingTask.page)
 
         val w = Math.round(renderingTask.renderingSize.width)
         val h = Math.round(renderingTask.renderingSize.height)
 
-        if (w == 0 || h == 0 || pdfFile.pageHasError(renderingTask.page)) {
+        if (w == 0 || h == 0) {
             return null
         }
 
         var render: Bitmap? = null
         runCatching {
-            Bitmap.createBitmap(
+            pdfView.bitmapPool.acquire(
                 w, h, if (renderingTask.bestQuality) Bitmap.Config.ARGB_8888 else Bitmap.Config.RGB_565
             )
         }.onSuccess { renderedBitmap ->
@@ -113,29 +274,118 @@ internal class RenderingHandler(
             render = null
         }
 
-        calculateBounds(w, h, renderingTask.renderingSize.bounds)
+        val diskCache = if (renderingTask.isForPrinting) null else pdfView.diskCache
+        val diskCacheKey = diskCache?.let {
+            DiskCache.key(
+                pdfFile.fingerprint,
+                pdfFile.documentPage(renderingTask.page),
+                renderingTask.thumbnail,
+                renderingTask.zoomLevel,
+                renderingTask.renderingSize.bounds,
+                w,
+                h,
+                renderingTask.bestQuality,
+                renderingTask.annotationRendering,
+            )
+        }
+        render?.let { bitmap ->
+            if (diskCache != null && diskCacheKey != null && diskCache.read(diskCacheKey, bitmap)) {
+                return createPagePart(renderingTask, bitmap)
+            }
+        }
 
-        pdfFile.renderPageBitmap(
-            render, renderingTask.page, roundedRenderBounds, renderingTask.annotationRendering
-        )
+        try {
+            pdfFile.openPage(renderingTask.page)
+        } catch (exception: PageRenderingException) {
+            pdfView.bitmapPool.release(render)
+            throw exception
+        }
+        if (pdfFile.pageHasError(renderingTask.page)) {
+            pdfView.bitmapPool.release(render)
+            return null
+        }
 
-        return PagePart(
-            renderingTask.page,
-            render,
-            renderingTask.renderingSize.bounds,
-            renderingTask.thumbnail,
-            renderingTask.cacheOrder
-        )
+        val pageBounds = calculateBounds(w, h, renderingTask.renderingSize.bounds)
+        val bitmap = render
+        if (bitmap == null || w.toLong() * h <= RENDER_SLICE_MIN_PIXELS || h <= RENDER_SLICE_HEIGHT) {
+            val rendered = pdfFile.renderPageBitmap(
+                bitmap,
+                renderingTask.page,
+                pageBounds,
+                renderingTask.annotationRendering,
+            ) { isAborted(renderingTask) }
+            if (!rendered) {
+                pdfView.bitmapPool.release(bitmap)
+                return null
+            }
+        } else if (!renderSlices(renderingTask, bitmap, pageBounds)) {
+            pdfView.bitmapPool.release(bitmap)
+            return null
+        }
+
+        if (bitmap != null && diskCache != null && diskCacheKey != null) diskCache.write(diskCacheKey, bitmap)
+
+        return createPagePart(renderingTask, bitmap)
+    }
+
+    private fun createPagePart(renderingTask: RenderingTask, bitmap: Bitmap?) = PagePart(
+        renderingTask.page,
+        bitmap,
+        renderingTask.renderingSize.bounds,
+        renderingTask.thumbnail,
+        renderingTask.cacheOrder,
+        renderingTask.zoomLevel,
+        renderingTask.cacheKey,
+    )
+
+    /**
+     * Render the bitmap slice by slice, checking in between whether the task has been aborted.
+     *
+     * @return false if the rendering has been aborted, the bitmap content is then incomplete
+     */
+    private fun renderSlices(task: RenderingTask, bitmap: Bitmap, pageBounds: Rect): Boolean {
+        val slice = pdfView.bitmapPool.acquire(bitmap.width, RENDER_SLICE_HEIGHT, bitmap.config)
+        try {
+            val canvas = Canvas(bitmap)
+            val sliceBounds = Rect()
+            var top = 0
+            while (top < bitmap.height) {
+                sliceBounds.set(pageBounds)
+                sliceBounds.offset(0, -top)
+                val rendered = pdfView.pdfFile.renderPageBitmap(
+                    slice,
+                    task.page,
+                    sliceBounds,
+                    task.annotationRendering,
+                ) { isAborted(task) }
+                if (!rendered) return false
+                // The last slice may overflow the bitmap, the canvas clips it
+                canvas.drawBitmap(slice, 0f, top.toFloat(), null)
+                top += RENDER_SLICE_HEIGHT
+            }
+        } finally {
+            pdfView.bitmapPool.release(slice)
+        }
+        return true
     }
 
-    private fun calculateBounds(width: Int, height: Int, pageSliceBounds: RectF) {
-        renderMatrix.reset()
-        renderMatrix.postTranslate(-pageSliceBounds.left * width, -pageSliceBounds.top * height)
-        renderMatrix.postScale(1 / pageSliceBounds.width(), 1 / pageSliceBounds.height())
+    private fun isAborted(task: RenderingTask): Boolean = task.cancelled || !running
 
-        renderBounds[0f, 0f, width.toFloat()] = height.toFloat()
-        renderMatrix.mapRect(renderBounds)
-        renderBounds.round(roundedRenderBounds)
+    /**
+     * Bounds of the whole page, in the coordinates of the rendered slice.
+     * Computed without shared state so that several rendering threads can run it at once.
+     */
+    private fun calculateBounds(width: Int, height: Int, pageSliceBounds: RectF): Rect {
+        val scaleX = 1 / pageSliceBounds.width()
+        val scaleY = 1 / pageSliceBounds.height()
+        val left = -pageSliceBounds.left * width * scaleX
+        val top = -pageSliceBounds.top * height * scaleY
+        return Rect(
+            Math.round(left),
+            Math.round(top),
+            Math.round(left + width * scaleX),
+            Math.round(top + height * scaleY),
+        )
     }
 
     data class RenderingSize(
@@ -144,21 +394,75 @@ internal class RenderingHandler(
         var bounds: RectF,
     )
 
-    private data class RenderingTask(
-        var renderingSize: RenderingSize,
-        var page: Int,
-        var thumbnail: Boolean,
-        var cacheOrder: Int,
-        var bestQuality: Boolean,
-        var annotationRendering: Boolean,
-        var isForPrinting: Boolean,
-    )
+    /**
+     * Identity of a rendered part, two tasks with the same key render the same bitmap
+     */
+    private data class TaskKey(
+        val page: Int,
+        val thumbnail: Boolean,
+        val isForPrinting: Boolean,
+        val zoomLevel: Int,
+        val left: Float,
+        val top: Float,
+        val right: Float,
+        val bottom: Float,
+    ) {
+        constructor(page: Int, thumbnail: Boolean, isForPrinting: Boolean, zoomLevel: Int, bounds: RectF) :
+                this(page, thumbnail, isForPrinting, zoomLevel, bounds.left, bounds.top, bounds.right, bounds.bottom)
+    }
+
+    private inner class RenderingTask(
+        val key: TaskKey,
+        val renderingSize: RenderingSize,
+        val page: Int,
+        val thumbnail: Boolean,
+        @Volatile var cacheOrder: Int,
+        val bestQuality: Boolean,
+        val annotationRendering: Boolean,
+        val isForPrinting: Boolean,
+        val zoomLevel: Int,
+        val cacheKey: Long,
+        var priority: Int,
+        var distanceToCenter: Float,
+        var renderPass: Int,
+        val sequence: Long,
+    ) : Runnable, Comparable<RenderingTask> {
+
+        @Volatile
+        var cancelled = false
+
+        override fun run() = handleTask(this)
+
+        override fun compareTo(other: RenderingTask): Int = when {
+            priority != other.priority -> priority.compareTo(other.priority)
+            distanceToCenter != other.distanceToCenter -> distanceToCenter.compareTo(other.distanceToCenter)
+            else -> sequence.compareTo(other.sequence)
+        }
+    }
+
+    private class RenderingThreadFactory : ThreadFactory {
+        private val threadNumber = AtomicInteger(1)
+
+        override fun newThread(runnable: Runnable): Thread {
+            return Thread(runnable, "PDF renderer #${threadNumber.getAndIncrement()}")
+        }
+    }
 
     companion object {
         /**
-         * [Message.what] kind of message this handler processes.
+         * Parts intersecting the viewport, rendered first.
+         */
+        const val PRIORITY_VISIBLE: Int = 0
+
+        /**
+         * Thumbnails of the pages around the viewport.
+         */
+        const val PRIORITY_THUMBNAIL: Int = 1
+
+        /**
+         * Parts in the preloaded area around the viewport.
          */
-        const val MSG_RENDER_TASK: Int = 1
+        const val PRIORITY_PRELOAD: Int = 2
 
         private val TAG: String = RenderingHandler::class.java.name
     }
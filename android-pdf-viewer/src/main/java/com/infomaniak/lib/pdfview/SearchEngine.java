@@ -0,0 +1,336 @@
+/*
+ * Infomaniak android-pdf-viewer
+ * Copyright (C) 2024 Infomaniak Network SA
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.infomaniak.lib.pdfview;
+
+import android.graphics.RectF;
+import android.os.Process;
+import android.util.Log;
+import android.util.SparseArray;
+
+import androidx.annotation.Nullable;
+
+import com.infomaniak.lib.pdfview.listener.OnSearchListener;
+import com.infomaniak.lib.pdfview.search.PageText;
+import com.infomaniak.lib.pdfview.search.SearchHit;
+import com.infomaniak.lib.pdfview.search.TextExtractor;
+import com.infomaniak.lib.pdfview.util.Constants;
+
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Searches a text in the pages of a document, several pages at once on its own background threads,
+ * so that searching never delays the rendering. Pages are searched starting from the current one
+ * and their hits are handed over to the listener on the main thread as soon as they are found.
+ * <p>
+ * When the text of the document is in the {@link TextIndex}, only the pages found through the index
+ * are searched, in a single task and without extracting their text.
+ * <p>
+ * Starting a new search cancels the previous one, the hits of a cancelled search are never delivered.
+ */
+class SearchEngine {
+
+    private static final String TAG = SearchEngine.class.getSimpleName();
+
+    private final WeakReference<PDFView> pdfViewReference;
+
+    private final ThreadPoolExecutor executor = new ThreadPoolExecutor(
+            Constants.SEARCH_THREADS,
+            Constants.SEARCH_THREADS,
+            0L,
+            TimeUnit.MILLISECONDS,
+            new LinkedBlockingQueue<Runnable>(),
+            new SearchThreadFactory()
+    );
+
+    /**
+     * Search in progress, null if none. Only used on the main thread.
+     */
+    private Search currentSearch;
+
+    SearchEngine(PDFView pdfView) {
+        this.pdfViewReference = new WeakReference<>(pdfView);
+    }
+
+    /**
+     * Search the query in every page, case insensitively and from the start of a word,
+     * the current search is cancelled
+     *
+     * @param textIndex index to look the pages up in, null to extract the text of every page
+     * @param startPage page searched first, the next ones follow
+     */
+    void search(PdfFile pdfFile, TextExtractor textExtractor, @Nullable TextIndex textIndex, String query,
+                int startPage, OnSearchListener listener) {
+        cancel();
+        Search search = new Search(pdfFile, textExtractor, query, startPage, listener);
+        currentSearch = search;
+
+        int pagesCount = pdfFile.getPagesCount();
+        if (query.isEmpty() || pagesCount == 0) {
+            listener.onSearchComplete(query, 0);
+            currentSearch = null;
+            return;
+        }
+        search.remainingPages = pagesCount;
+        if (textIndex != null && pdfFile.getFingerprint() != null) {
+            executor.execute(new IndexedSearch(search, textIndex));
+        } else {
+            searchPages(search);
+        }
+    }
+
+    private void searchPages(Search search) {
+        int pagesCount = search.pdfFile.getPagesCount();
+        for (int i = 0; i < pagesCount; i++) {
+            executor.execute(new PageSearch(search, (search.startPage + i) % pagesCount));
+        }
+    }
+
+    /**
+     * Cancel the search in progress, its listener isn't called anymore
+     */
+    void cancel() {
+        if (currentSearch != null) {
+            currentSearch.cancelled = true;
+            currentSearch = null;
+        }
+        // Only pages of the cancelled search can be waiting
+        executor.getQueue().clear();
+    }
+
+    void shutdown() {
+        cancel();
+        executor.shutdownNow();
+    }
+
+    private void onPagesSearched(Search search, List<SearchHit> hits, int pagesCount) {
+        if (search.cancelled) {
+            return;
+        }
+        for (SearchHit hit : hits) {
+            search.listener.onSearchHit(hit);
+        }
+        search.hitsCount += hits.size();
+        search.remainingPages -= pagesCount;
+        if (search.remainingPages == 0) {
+            currentSearch = null;
+            search.listener.onSearchComplete(search.query, search.hitsCount);
+        }
+    }
+
+    /**
+     * Find the occurrences of the query in the text, without overlapping
+     */
+    static List<SearchHit> findHits(int page, PageText pageText, String query) {
+        String text = pageText.getText();
+        int length = query.length();
+        List<SearchHit> hits = null;
+        int start = indexOf(text, query, 0);
+        while (start >= 0) {
+            if (hits == null) {
+                hits = new ArrayList<>();
+            }
+            hits.add(new SearchHit(page, start, length, getHitRects(pageText, start, length)));
+            start = indexOf(text, query, start + length);
+        }
+        return hits != null ? hits : Collections.<SearchHit>emptyList();
+    }
+
+    /**
+     * Find the query in the text case insensitively, the same way whether the text is extracted or indexed.
+     * A query starting with a letter or a digit only matches at the start of a word, like the prefix queries
+     * of the {@link TextIndex}.
+     *
+     * @return the index of the first occurrence from the given index, -1 if there is none
+     */
+    static int indexOf(String text, String query, int fromIndex) {
+        int length = query.length();
+        boolean wordStart = length > 0 && Character.isLetterOrDigit(query.charAt(0));
+        for (int start = fromIndex; start <= text.length() - length; start++) {
+            if (wordStart && start > 0 && Character.isLetterOrDigit(text.charAt(start - 1))) {
+                continue;
+            }
+            if (text.regionMatches(true, start, query, 0, length)) {
+                return start;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Merge the boxes of the characters of a hit, one rect per line
+     */
+    private static List<RectF> getHitRects(PageText pageText, int start, int length) {
+        if (!pageText.hasCharBoxes()) {
+            return Collections.emptyList();
+        }
+        List<RectF> rects = new ArrayList<>(1);
+        RectF line = null;
+        for (int i = start; i < start + length; i++) {
+            RectF box = pageText.getCharBox(i);
+            if (box == null || box.isEmpty()) {
+                continue;
+            }
+            if (line != null && box.top < line.bottom && box.bottom > line.top) {
+                line.union(box);
+            } else {
+                line = new RectF(box);
+                rects.add(line);
+            }
+        }
+        return rects;
+    }
+
+    private static class Search {
+        final PdfFile pdfFile;
+        final TextExtractor textExtractor;
+        final String query;
+        final int startPage;
+        final OnSearchListener listener;
+        volatile boolean cancelled = false;
+
+        // Only used on the main thread
+        int remainingPages;
+        int hitsCount = 0;
+
+        Search(PdfFile pdfFile, TextExtractor textExtractor, String query, int startPage,
+               OnSearchListener listener) {
+            this.pdfFile = pdfFile;
+            this.textExtractor = textExtractor;
+            this.query = query;
+            this.startPage = startPage;
+            this.listener = listener;
+        }
+    }
+
+    private class IndexedSearch implements Runnable {
+        private final Search search;
+        private final TextIndex textIndex;
+
+        IndexedSearch(Search search, TextIndex textIndex) {
+            this.search = search;
+            this.textIndex = textIndex;
+        }
+
+        @Override
+        public void run() {
+            if (search.cancelled) {
+                return;
+            }
+            final SparseArray<PageText> documentPages = textIndex.findPages(search.pdfFile.getFingerprint(),
+                    search.query);
+            PDFView pdfView = pdfViewReference.get();
+            if (pdfView == null || search.cancelled) {
+                return;
+            }
+            if (documentPages == null) {
+                // Not indexed yet, extract the text of every page
+                pdfView.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (!search.cancelled) {
+                            searchPages(search);
+                        }
+                    }
+                });
+                return;
+            }
+
+            // A document page may be displayed several times, or not at all
+            final int pagesCount = search.pdfFile.getPagesCount();
+            final List<SearchHit> hits = new ArrayList<>();
+            for (int i = 0; i < pagesCount; i++) {
+                int page = (search.startPage + i) % pagesCount;
+                PageText pageText = documentPages.get(search.pdfFile.documentPage(page));
+                if (pageText != null) {
+                    hits.addAll(findHits(page, pageText, search.query));
+                }
+            }
+            pdfView.post(new Runnable() {
+                @Override
+                public void run() {
+                    onPagesSearched(search, hits, pagesCount);
+                }
+            });
+        }
+    }
+
+    private class PageSearch implements Runnable {
+        private final Search search;
+        private final int page;
+
+        PageSearch(Search search, int page) {
+            this.search = search;
+            this.page = page;
+        }
+
+        @Override
+        public void run() {
+            if (search.cancelled) {
+                return;
+            }
+            List<SearchHit> hits = Collections.emptyList();
+            int documentPage = search.pdfFile.documentPage(page);
+            if (documentPage >= 0) {
+                try {
+                    PageText pageText = search.textExtractor.extractText(documentPage);
+                    if (pageText != null) {
+                        hits = findHits(page, pageText, search.query);
+                    }
+                } catch (IOException | RuntimeException e) {
+                    // The page is reported without hits, so that the search still completes
+                    Log.e(TAG, "Cannot extract the text of page " + page, e);
+                }
+            }
+
+            final List<SearchHit> pageHits = hits;
+            PDFView pdfView = pdfViewReference.get();
+            if (pdfView != null && !search.cancelled) {
+                pdfView.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        onPagesSearched(search, pageHits, 1);
+                    }
+                });
+            }
+        }
+    }
+
+    private static class SearchThreadFactory implements ThreadFactory {
+        private final AtomicInteger threadNumber = new AtomicInteger(1);
+
+        @Override
+        public Thread newThread(final Runnable runnable) {
+            return new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                    runnable.run();
+                }
+            }, "PDF search #" + threadNumber.getAndIncrement());
+        }
+    }
+}
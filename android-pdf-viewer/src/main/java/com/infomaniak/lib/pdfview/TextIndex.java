@@ -0,0 +1,349 @@
+/*
+ * Infomaniak android-pdf-viewer
+ * Copyright (C) 2024 Infomaniak Network SA
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.infomaniak.lib.pdfview;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.graphics.RectF;
+import android.util.Log;
+import android.util.SparseArray;
+
+import androidx.annotation.Nullable;
+
+import com.infomaniak.lib.pdfview.search.PageText;
+import com.infomaniak.lib.pdfview.util.Constants;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Stores the text of the pages of the documents already searched, so that the next searches read it from
+ * an SQLite database instead of extracting it again.
+ * <p>
+ * The text is kept in an FTS4 full-text index using the unicode61 tokenizer, which folds the case of any
+ * script. Searches match the start of the words, whether the text is extracted or read from the index, see
+ * {@link SearchEngine#indexOf}: the index finds the candidate pages through a prefix phrase query, and their
+ * text is then matched exactly like the extracted one. On devices whose SQLite lacks FTS4 or unicode61,
+ * the database can't be created and documents are searched by extracting their text.
+ * <p>
+ * The boxes of the characters are kept in a compact blob, 4 unsigned shorts per character, and only read
+ * for the pages containing the query. Documents are identified by their fingerprint, only the most recently
+ * searched ones are kept, and a document is indexed by a single {@link TextIndexer} at a time.
+ * <p>
+ * The index is shared by every {@link PDFView} of the process, it must not be used on the main thread.
+ * Database errors are logged, the document is then searched by extracting its text.
+ */
+class TextIndex {
+
+    private static final String TAG = TextIndex.class.getSimpleName();
+
+    private static final String DATABASE_NAME = "pdfview-text.db";
+    private static final int DATABASE_VERSION = 3;
+    private static final int BOX_SIZE = 4 * Short.SIZE / Byte.SIZE;
+    private static final float BOX_SCALE = 0xFFFF;
+
+    private static TextIndex instance;
+
+    private final SQLiteOpenHelper helper;
+
+    /**
+     * Fingerprints of the documents being indexed, guarded by itself
+     */
+    private final Set<String> indexingDocuments = new HashSet<>();
+
+    private TextIndex(Context context) {
+        helper = new SQLiteOpenHelper(context.getApplicationContext(), DATABASE_NAME, null, DATABASE_VERSION) {
+            @Override
+            public void onCreate(SQLiteDatabase db) {
+                db.execSQL("CREATE TABLE documents (fingerprint TEXT PRIMARY KEY, complete INTEGER NOT NULL,"
+                        + " last_used INTEGER NOT NULL)");
+                db.execSQL("CREATE TABLE pages (id INTEGER PRIMARY KEY, fingerprint TEXT NOT NULL,"
+                        + " page INTEGER NOT NULL, boxes BLOB)");
+                db.execSQL("CREATE INDEX pages_fingerprint ON pages (fingerprint)");
+                // The text of a page, its docid is the id of the page
+                db.execSQL("CREATE VIRTUAL TABLE page_words USING fts4(text, tokenize=unicode61)");
+            }
+
+            @Override
+            public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+                // Only a cache, start again from scratch
+                db.execSQL("DROP TABLE IF EXISTS documents");
+                db.execSQL("DROP TABLE IF EXISTS pages");
+                db.execSQL("DROP TABLE IF EXISTS page_words");
+                onCreate(db);
+            }
+        };
+    }
+
+    static synchronized TextIndex getInstance(Context context) {
+        if (instance == null) {
+            instance = new TextIndex(context);
+        }
+        return instance;
+    }
+
+    /**
+     * @return true if the text of every page of the document is stored
+     */
+    boolean isIndexed(String fingerprint) {
+        try (Cursor cursor = helper.getReadableDatabase().rawQuery(
+                "SELECT complete FROM documents WHERE fingerprint = ?", new String[]{fingerprint})) {
+            return cursor.moveToFirst() && cursor.getInt(0) != 0;
+        } catch (SQLiteException e) {
+            Log.w(TAG, "Cannot read text index", e);
+            return false;
+        }
+    }
+
+    /**
+     * Start storing the text of a document, replacing what may remain from a previous attempt,
+     * and evict the least recently used documents beyond {@link Constants.Cache#TEXT_INDEX_COUNT}.
+     * If it returns true, {@link #endDocument(String)} must be called once the document is indexed or not.
+     *
+     * @return false if the document is already being indexed, or if the database can't be written
+     */
+    boolean beginDocument(String fingerprint) {
+        synchronized (indexingDocuments) {
+            if (!indexingDocuments.add(fingerprint)) {
+                return false;
+            }
+        }
+        try {
+            SQLiteDatabase db = helper.getWritableDatabase();
+            db.beginTransaction();
+            try {
+                deleteDocument(db, fingerprint);
+                ContentValues values = new ContentValues();
+                values.put("fingerprint", fingerprint);
+                values.put("complete", 0);
+                values.put("last_used", System.currentTimeMillis());
+                db.insertOrThrow("documents", null, values);
+
+                try (Cursor cursor = db.rawQuery("SELECT fingerprint FROM documents ORDER BY last_used DESC"
+                        + " LIMIT -1 OFFSET " + Constants.Cache.TEXT_INDEX_COUNT, null)) {
+                    while (cursor.moveToNext()) {
+                        String evicted = cursor.getString(0);
+                        if (!isIndexing(evicted)) {
+                            deleteDocument(db, evicted);
+                        }
+                    }
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+            return true;
+        } catch (SQLiteException e) {
+            Log.w(TAG, "Cannot write text index", e);
+            endDocument(fingerprint);
+            return false;
+        }
+    }
+
+    /**
+     * Let the document be indexed again, after {@link #beginDocument(String)} returned true
+     */
+    void endDocument(String fingerprint) {
+        synchronized (indexingDocuments) {
+            indexingDocuments.remove(fingerprint);
+        }
+    }
+
+    private boolean isIndexing(String fingerprint) {
+        synchronized (indexingDocuments) {
+            return indexingDocuments.contains(fingerprint);
+        }
+    }
+
+    /**
+     * Store the text of consecutive pages in a single transaction
+     *
+     * @param firstPage document page of the first text
+     * @return false if the database can't be written
+     */
+    boolean addPages(String fingerprint, int firstPage, List<PageText> pageTexts) {
+        try {
+            SQLiteDatabase db = helper.getWritableDatabase();
+            db.beginTransaction();
+            try {
+                for (int i = 0; i < pageTexts.size(); i++) {
+                    PageText pageText = pageTexts.get(i);
+                    ContentValues values = new ContentValues();
+                    values.put("fingerprint", fingerprint);
+                    values.put("page", firstPage + i);
+                    if (pageText.hasCharBoxes()) {
+                        values.put("boxes", encodeBoxes(pageText));
+                    }
+                    long id = db.insertOrThrow("pages", null, values);
+
+                    ContentValues words = new ContentValues();
+                    words.put("docid", id);
+                    words.put("text", pageText.getText());
+                    db.insertOrThrow("page_words", null, words);
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+            return true;
+        } catch (SQLiteException e) {
+            Log.w(TAG, "Cannot write text index", e);
+            return false;
+        }
+    }
+
+    void completeDocument(String fingerprint) {
+        try {
+            ContentValues values = new ContentValues();
+            values.put("complete", 1);
+            helper.getWritableDatabase().update("documents", values, "fingerprint = ?", new String[]{fingerprint});
+        } catch (SQLiteException e) {
+            Log.w(TAG, "Cannot write text index", e);
+        }
+    }
+
+    /**
+     * Find the pages containing the query, like {@link SearchEngine#findHits}
+     *
+     * @return the text of these pages by document page, or null if the document isn't completely indexed
+     * or the database can't be read
+     */
+    @Nullable
+    SparseArray<PageText> findPages(String fingerprint, String query) {
+        if (!isIndexed(fingerprint)) {
+            return null;
+        }
+        try {
+            SQLiteDatabase db = helper.getWritableDatabase();
+            ContentValues values = new ContentValues();
+            values.put("last_used", System.currentTimeMillis());
+            db.update("documents", values, "fingerprint = ?", new String[]{fingerprint});
+
+            // The candidates found by the full-text index are matched like the extracted text,
+            // the boxes, much larger than the text, are only read for the pages containing the query
+            String matchExpression = getMatchExpression(query);
+            Cursor candidates = matchExpression != null
+                    ? db.rawQuery("SELECT pages.id, pages.page, page_words.text FROM pages"
+                    + " JOIN page_words ON page_words.docid = pages.id"
+                    + " WHERE pages.fingerprint = ? AND page_words.text MATCH ?",
+                    new String[]{fingerprint, matchExpression})
+                    : db.rawQuery("SELECT pages.id, pages.page, page_words.text FROM pages"
+                    + " JOIN page_words ON page_words.docid = pages.id WHERE pages.fingerprint = ?",
+                    new String[]{fingerprint});
+            SparseArray<PageText> pages = new SparseArray<>();
+            try (Cursor cursor = candidates) {
+                while (cursor.moveToNext()) {
+                    String text = cursor.getString(2);
+                    if (SearchEngine.indexOf(text, query, 0) >= 0) {
+                        pages.put(cursor.getInt(1), new PageText(text, readBoxes(db, cursor.getLong(0))));
+                    }
+                }
+            }
+            return pages;
+        } catch (SQLiteException e) {
+            Log.w(TAG, "Cannot read text index", e);
+            return null;
+        }
+    }
+
+    @Nullable
+    private static RectF[] readBoxes(SQLiteDatabase db, long id) {
+        try (Cursor cursor = db.rawQuery("SELECT boxes FROM pages WHERE id = ?", new String[]{Long.toString(id)})) {
+            byte[] boxes = cursor.moveToFirst() ? cursor.getBlob(0) : null;
+            return boxes != null ? decodeBoxes(boxes) : null;
+        }
+    }
+
+    /**
+     * Full-text query finding at least every page where {@link SearchEngine#indexOf} matches the query:
+     * its words as a phrase, the last one as a prefix when the query may end in the middle of a word
+     *
+     * @return null if the query has no word to look up, every page is then a candidate
+     */
+    @Nullable
+    static String getMatchExpression(String query) {
+        StringBuilder phrase = new StringBuilder(query.length() + 3);
+        boolean hasWord = false;
+        boolean inWord = false;
+        for (int i = 0; i < query.length(); i++) {
+            char c = query.charAt(i);
+            inWord = Character.isLetterOrDigit(c);
+            if (inWord) {
+                hasWord = true;
+                phrase.append(c);
+            } else if (phrase.length() > 0 && phrase.charAt(phrase.length() - 1) != ' ') {
+                // Separators only split the phrase into words, quotes and operators included
+                phrase.append(' ');
+            }
+        }
+        if (!hasWord) {
+            return null;
+        }
+        String words = phrase.toString().trim();
+        return "\"" + words + (inWord ? "*" : "") + "\"";
+    }
+
+    private static void deleteDocument(SQLiteDatabase db, String fingerprint) {
+        String[] args = {fingerprint};
+        db.delete("page_words", "docid IN (SELECT id FROM pages WHERE fingerprint = ?)", args);
+        db.delete("pages", "fingerprint = ?", args);
+        db.delete("documents", "fingerprint = ?", args);
+    }
+
+    private static byte[] encodeBoxes(PageText pageText) {
+        int length = pageText.getText().length();
+        ByteBuffer buffer = ByteBuffer.allocate(length * BOX_SIZE);
+        for (int i = 0; i < length; i++) {
+            RectF box = pageText.getCharBox(i);
+            if (box == null) {
+                buffer.putLong(0);
+            } else {
+                buffer.putShort(encode(box.left));
+                buffer.putShort(encode(box.top));
+                buffer.putShort(encode(box.right));
+                buffer.putShort(encode(box.bottom));
+            }
+        }
+        return buffer.array();
+    }
+
+    private static RectF[] decodeBoxes(byte[] bytes) {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        RectF[] boxes = new RectF[bytes.length / BOX_SIZE];
+        for (int i = 0; i < boxes.length; i++) {
+            boxes[i] = new RectF(decode(buffer.getShort()), decode(buffer.getShort()),
+                    decode(buffer.getShort()), decode(buffer.getShort()));
+        }
+        return boxes;
+    }
+
+    private static short encode(float value) {
+        return (short) Math.round(Math.max(0, Math.min(1, value)) * BOX_SCALE);
+    }
+
+    private static float decode(short value) {
+        return (value & 0xFFFF) / BOX_SCALE;
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Infomaniak android-pdf-viewer
+ * Copyright (C) 2024 Infomaniak Network SA
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.infomaniak.lib.pdfview;
+
+import android.util.Log;
+
+import com.infomaniak.lib.pdfview.search.PageText;
+import com.infomaniak.lib.pdfview.search.TextExtractor;
+import com.infomaniak.lib.pdfview.util.Constants;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Extracts in the background the text of every page of a document not indexed yet,
+ * and stores it in the {@link TextIndex} so that its next searches don't extract it anymore.
+ * Pages are stored by batches of {@link Constants.Cache#TEXT_INDEX_BATCH_PAGES}, each in a single transaction.
+ */
+class TextIndexer implements Runnable {
+
+    private static final String TAG = TextIndexer.class.getSimpleName();
+
+    private final TextIndex textIndex;
+    private final TextExtractor textExtractor;
+    private final String fingerprint;
+    private final int documentPagesCount;
+    private volatile boolean cancelled = false;
+
+    TextIndexer(TextIndex textIndex, TextExtractor textExtractor, String fingerprint, int documentPagesCount) {
+        this.textIndex = textIndex;
+        this.textExtractor = textExtractor;
+        this.fingerprint = fingerprint;
+        this.documentPagesCount = documentPagesCount;
+    }
+
+    void cancel() {
+        cancelled = true;
+    }
+
+    @Override
+    public void run() {
+        if (textIndex.isIndexed(fingerprint)) {
+            return;
+        }
+        // Another view may be indexing the same document
+        if (!textIndex.beginDocument(fingerprint)) {
+            return;
+        }
+        try {
+            if (indexPages()) {
+                textIndex.completeDocument(fingerprint);
+            }
+        } finally {
+            textIndex.endDocument(fingerprint);
+        }
+    }
+
+    /**
+     * @return true if the text of every page has been stored
+     */
+    private boolean indexPages() {
+        List<PageText> batch = new ArrayList<>(Constants.Cache.TEXT_INDEX_BATCH_PAGES);
+        int batchStart = 0;
+        for (int page = 0; page < documentPagesCount; page++) {
+            if (cancelled) {
+                // The document stays incomplete, it will be indexed again the next time it's opened
+                return false;
+            }
+            PageText pageText;
+            try {
+                pageText = textExtractor.extractText(page);
+            } catch (IOException | RuntimeException e) {
+                Log.w(TAG, "Cannot extract the text of page " + page + ", the document won't be indexed", e);
+                return false;
+            }
+            batch.add(pageText != null ? pageText : new PageText("", null));
+            if (batch.size() == Constants.Cache.TEXT_INDEX_BATCH_PAGES || page == documentPagesCount - 1) {
+                if (!textIndex.addPages(fingerprint, batchStart, batch)) {
+                    return false;
+                }
+                batch.clear();
+                batchStart = page + 1;
+            }
+        }
+        return true;
+    }
+}
@@ -35,6 +35,7 @@ public class Callbacks {
      * Call back object to call when the PDF is loaded
      */
     private OnLoadCompleteListener onLoadCompleteListener;
+    private OnLoadProgressListener onLoadProgressListener;
     private OnAttachCompleteListener onAttachCompleteListener;
     private OnDetachCompleteListener onDetachCompleteListener;
 
@@ -110,6 +111,16 @@ public class Callbacks {
         }
     }
 
+    public void setOnLoadProgress(OnLoadProgressListener onLoadProgressListener) {
+        this.onLoadProgressListener = onLoadProgressListener;
+    }
+
+    public void callOnLoadProgress(OnLoadProgressListener.Stage stage, int pagesCount) {
+        if (onLoadProgressListener != null) {
+            onLoadProgressListener.onLoadProgress(stage, pagesCount);
+        }
+    }
+
     public void setOnAttachCompleteListener(OnAttachCompleteListener onAttachCompleteListener) {
         this.onAttachCompleteListener = onAttachCompleteListener;
     }
@@ -235,6 +246,7 @@ public class Callbacks {
     public void clear() {
         // Not clearing onAttach and onDetach listeners because those are called before view initialization
         onLoadCompleteListener = null;
+        onLoadProgressListener = null;
         onErrorListener = null;
         onPageErrorListener = null;
         onRenderListener = null;
@@ -0,0 +1,31 @@
+package com.infomaniak.lib.pdfview.listener;
+
+/**
+ * Implement this interface to receive events from PDFView
+ * at each stage of the loading, before {@link OnLoadCompleteListener#loadComplete(int)} is called.
+ */
+public interface OnLoadProgressListener {
+
+    enum Stage {
+        /**
+         * The document has been opened
+         */
+        OPENED,
+        /**
+         * The number of pages to display is known
+         */
+        PAGES_COUNTED,
+        /**
+         * The size of the pages is known and the pages are laid out
+         */
+        LAID_OUT
+    }
+
+    /**
+     * Called on the main thread when the loading reaches a new stage
+     *
+     * @param stage   the stage reached
+     * @param nbPages the number of pages to display, 0 before {@link Stage#PAGES_COUNTED}
+     */
+    void onLoadProgress(Stage stage, int nbPages);
+}
@@ -26,7 +26,11 @@ import java.util.List;
 /**
  * Implement this interface to receive events from PDFView
  * when bitmaps has been generated. Used to print password protected PDF.
+ *
+ * @deprecated keeps every page in memory at once, print with
+ * {@link com.infomaniak.lib.pdfview.PDFView#createPrintDocumentAdapter(String)} instead
  */
+@Deprecated
 public interface OnReadyForPrintingListener {
 
     /**
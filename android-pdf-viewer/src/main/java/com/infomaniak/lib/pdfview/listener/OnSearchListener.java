@@ -0,0 +1,24 @@
+package com.infomaniak.lib.pdfview.listener;
+
+import com.infomaniak.lib.pdfview.search.SearchHit;
+
+/**
+ * Implement this interface to receive the results of a search in PDFView, on the main thread
+ */
+public interface OnSearchListener {
+
+    /**
+     * Called for each occurrence of the searched text, as soon as it's found. Pages are not searched in order.
+     *
+     * @param hit the occurrence found
+     */
+    void onSearchHit(SearchHit hit);
+
+    /**
+     * Called once every page has been searched, unless the search has been cancelled
+     *
+     * @param query     the searched text
+     * @param hitsCount the number of occurrences found
+     */
+    void onSearchComplete(String query, int hitsCount);
+}
@@ -30,13 +30,35 @@ public class PagePart {
 
     private int cacheOrder;
 
+    /**
+     * Zoom level the part has been rendered for, always 0 for thumbnails
+     */
+    private int zoomLevel;
+
+    /**
+     * Key of the part in the cache, packing its page, zoom level and cell in the page grid
+     */
+    private long cacheKey;
+
     public PagePart(int page, Bitmap renderedBitmap, RectF pageRelativeBounds, boolean thumbnail, int cacheOrder) {
+        this(page, renderedBitmap, pageRelativeBounds, thumbnail, cacheOrder, 0);
+    }
+
+    public PagePart(int page, Bitmap renderedBitmap, RectF pageRelativeBounds, boolean thumbnail, int cacheOrder,
+                    int zoomLevel) {
+        this(page, renderedBitmap, pageRelativeBounds, thumbnail, cacheOrder, zoomLevel, 0);
+    }
+
+    public PagePart(int page, Bitmap renderedBitmap, RectF pageRelativeBounds, boolean thumbnail, int cacheOrder,
+                    int zoomLevel, long cacheKey) {
         super();
         this.page = page;
         this.renderedBitmap = renderedBitmap;
         this.pageRelativeBounds = pageRelativeBounds;
         this.thumbnail = thumbnail;
         this.cacheOrder = cacheOrder;
+        this.zoomLevel = zoomLevel;
+        this.cacheKey = cacheKey;
     }
 
     public int getCacheOrder() {
@@ -63,6 +85,14 @@ public class PagePart {
         return thumbnail;
     }
 
+    public int getZoomLevel() {
+        return zoomLevel;
+    }
+
+    public long getCacheKey() {
+        return cacheKey;
+    }
+
     @Override
     public boolean equals(Object obj) {
         if (!(obj instanceof PagePart)) {
@@ -71,6 +101,7 @@ public class PagePart {
 
         PagePart part = (PagePart) obj;
         return part.getPage() == page
+                && part.getZoomLevel() == zoomLevel
                 && part.getPageRelativeBounds().left == pageRelativeBounds.left
                 && part.getPageRelativeBounds().right == pageRelativeBounds.right
                 && part.getPageRelativeBounds().top == pageRelativeBounds.top
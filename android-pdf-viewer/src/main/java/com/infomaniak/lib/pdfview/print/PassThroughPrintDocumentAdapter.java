@@ -0,0 +1,129 @@
+/*
+ * Infomaniak android-pdf-viewer
+ * Copyright (C) 2024 Infomaniak Network SA
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.infomaniak.lib.pdfview.print;
+
+import android.content.Context;
+import android.os.CancellationSignal;
+import android.os.ParcelFileDescriptor;
+import android.print.PageRange;
+import android.util.Log;
+
+import com.infomaniak.lib.pdfview.PdfFile;
+import com.infomaniak.lib.pdfview.source.DocumentSource;
+import com.infomaniak.lib.pdfview.util.BackgroundExecutor;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Prints a document by handing its original content over to the print framework, without rendering
+ * any page: printing is then a plain copy and the pages keep their vector content.
+ * <p>
+ * Only fits documents shown entirely, in their original order and without password. When the source
+ * can't be read again, the pages are rendered as by {@link PdfPrintDocumentAdapter}.
+ */
+public class PassThroughPrintDocumentAdapter extends PdfPrintDocumentAdapter {
+
+    private static final String TAG = PassThroughPrintDocumentAdapter.class.getSimpleName();
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final Context context;
+    private final DocumentSource documentSource;
+
+    /**
+     * @param pdfFile        document to print, used if the source can't be read again
+     * @param documentSource source the document has been opened from
+     * @param documentName   name of the print job
+     */
+    public PassThroughPrintDocumentAdapter(Context context, PdfFile pdfFile, DocumentSource documentSource,
+                                           String documentName, boolean annotationRendering) {
+        super(context, pdfFile, documentName, annotationRendering);
+        this.context = context.getApplicationContext();
+        this.documentSource = documentSource;
+    }
+
+    @Override
+    public void onWrite(final PageRange[] pages, final ParcelFileDescriptor destination,
+                        final CancellationSignal cancellationSignal, final WriteResultCallback callback) {
+        BackgroundExecutor.executeLongRunning(new Runnable() {
+            @Override
+            public void run() {
+                InputStream inputStream;
+                try {
+                    inputStream = documentSource.openInputStream(context);
+                } catch (IOException e) {
+                    Log.w(TAG, "Cannot read the document source, printing rendered pages", e);
+                    inputStream = null;
+                }
+                if (inputStream == null) {
+                    PassThroughPrintDocumentAdapter.super.onWrite(pages, destination, cancellationSignal, callback);
+                    return;
+                }
+                copy(inputStream, destination, cancellationSignal, callback);
+            }
+        });
+    }
+
+    private void copy(InputStream inputStream, ParcelFileDescriptor destination,
+                      CancellationSignal cancellationSignal, final WriteResultCallback callback) {
+        try {
+            FileOutputStream outputStream = null;
+            try {
+                outputStream = new FileOutputStream(destination.getFileDescriptor());
+                byte[] buffer = new byte[BUFFER_SIZE];
+                int read;
+                while ((read = inputStream.read(buffer)) != -1) {
+                    if (cancellationSignal.isCanceled()) {
+                        postResult(new Runnable() {
+                            @Override
+                            public void run() {
+                                callback.onWriteCancelled();
+                            }
+                        });
+                        return;
+                    }
+                    outputStream.write(buffer, 0, read);
+                }
+            } finally {
+                try {
+                    inputStream.close();
+                } finally {
+                    if (outputStream != null) {
+                        outputStream.close();
+                    }
+                }
+            }
+            // The whole document is written, the print framework picks the requested pages in it
+            postResult(new Runnable() {
+                @Override
+                public void run() {
+                    callback.onWriteFinished(new PageRange[]{PageRange.ALL_PAGES});
+                }
+            });
+        } catch (final IOException e) {
+            Log.e(TAG, "Cannot print document", e);
+            postResult(new Runnable() {
+                @Override
+                public void run() {
+                    callback.onWriteFailed(e.getMessage());
+                }
+            });
+        }
+    }
+}
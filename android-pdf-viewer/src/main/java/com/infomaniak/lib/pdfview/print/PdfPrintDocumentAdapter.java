@@ -0,0 +1,245 @@
+/*
+ * Infomaniak android-pdf-viewer
+ * Copyright (C) 2024 Infomaniak Network SA
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.infomaniak.lib.pdfview.print;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.RectF;
+import android.graphics.pdf.PdfDocument;
+import android.os.Bundle;
+import android.os.CancellationSignal;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.ParcelFileDescriptor;
+import android.print.PageRange;
+import android.print.PrintAttributes;
+import android.print.PrintDocumentAdapter;
+import android.print.PrintDocumentInfo;
+import android.print.pdf.PrintedPdfDocument;
+import android.util.Log;
+
+import com.infomaniak.lib.pdfview.PdfFile;
+import com.infomaniak.lib.pdfview.util.BackgroundExecutor;
+import com.infomaniak.lib.pdfview.util.Constants;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+
+/**
+ * Prints a document through the Android print framework. Pages are rendered in the background
+ * by a {@link PrintProducer}, one at a time, and drawn on the pages of the printed document.
+ * <p>
+ * The printed document keeps a copy of every page until it's written at the end, so the resolution
+ * of the pages is lowered with their number to keep them within {@link Constants#PRINT_HEAP_FRACTION}
+ * of the heap, down to {@link Constants#PRINT_MIN_PIXELS} per page. The {@link PrintQualityListener} is
+ * told when the resolution has been lowered. Beyond that, printing fails and asks for fewer pages instead
+ * of running out of memory.
+ */
+public class PdfPrintDocumentAdapter extends PrintDocumentAdapter {
+
+    private static final String TAG = PdfPrintDocumentAdapter.class.getSimpleName();
+
+    /**
+     * Pages are rendered in ARGB_8888
+     */
+    private static final int BYTES_PER_PIXEL = 4;
+
+    private final Context context;
+    private final PdfFile pdfFile;
+    private final String documentName;
+    private final boolean annotationRendering;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    private PrintAttributes attributes;
+    private PrintQualityListener printQualityListener;
+
+    /**
+     * @param pdfFile      document to print, must stay opened until printing is finished
+     * @param documentName name of the print job
+     */
+    public PdfPrintDocumentAdapter(Context context, PdfFile pdfFile, String documentName,
+                                   boolean annotationRendering) {
+        this.context = context.getApplicationContext();
+        this.pdfFile = pdfFile;
+        this.documentName = documentName;
+        this.annotationRendering = annotationRendering;
+    }
+
+    /**
+     * @param printQualityListener told on the main thread when the pages are printed at a lower resolution,
+     *                             null for none
+     */
+    public void setPrintQualityListener(PrintQualityListener printQualityListener) {
+        this.printQualityListener = printQualityListener;
+    }
+
+    @Override
+    public void onLayout(PrintAttributes oldAttributes, PrintAttributes newAttributes,
+                         CancellationSignal cancellationSignal, LayoutResultCallback callback, Bundle extras) {
+        if (cancellationSignal.isCanceled()) {
+            callback.onLayoutCancelled();
+            return;
+        }
+        attributes = newAttributes;
+        PrintDocumentInfo info = new PrintDocumentInfo.Builder(documentName)
+                .setContentType(PrintDocumentInfo.CONTENT_TYPE_DOCUMENT)
+                .setPageCount(pdfFile.getPagesCount())
+                .build();
+        callback.onLayoutFinished(info, !newAttributes.equals(oldAttributes));
+    }
+
+    @Override
+    public void onWrite(final PageRange[] pages, final ParcelFileDescriptor destination,
+                        final CancellationSignal cancellationSignal, final WriteResultCallback callback) {
+        final PrintAttributes writeAttributes = attributes;
+        BackgroundExecutor.executeLongRunning(new Runnable() {
+            @Override
+            public void run() {
+                write(writeAttributes, pages, destination, cancellationSignal, callback);
+            }
+        });
+    }
+
+    private void write(PrintAttributes attributes, final PageRange[] pages, ParcelFileDescriptor destination,
+                       CancellationSignal cancellationSignal, final WriteResultCallback callback) {
+        final int printedPages = countPages(pages, pdfFile.getPagesCount());
+        float maxPagePixels = getMaxPagePixels(printedPages);
+        if (maxPagePixels < Constants.PRINT_MIN_PIXELS) {
+            Log.w(TAG, "Cannot print " + printedPages + " pages at once within the memory given to printing");
+            postResult(new Runnable() {
+                @Override
+                public void run() {
+                    callback.onWriteFailed("Too many pages to print at once (" + printedPages
+                            + "), print fewer pages");
+                }
+            });
+            return;
+        }
+        final PrintProducer producer = new PrintProducer(pdfFile, getDpi(attributes), annotationRendering);
+        producer.setMaxPagePixels(Math.min(Constants.PRINT_MAX_PIXELS, maxPagePixels));
+        cancellationSignal.setOnCancelListener(new CancellationSignal.OnCancelListener() {
+            @Override
+            public void onCancel() {
+                producer.cancel();
+            }
+        });
+
+        PrintedPdfDocument document = new PrintedPdfDocument(context, attributes);
+        Paint paint = new Paint(Paint.FILTER_BITMAP_FLAG);
+        Matrix matrix = new Matrix();
+        try {
+            for (int page = 0; page < producer.getPageCount(); page++) {
+                if (!containsPage(pages, page)) {
+                    continue;
+                }
+                Bitmap bitmap = producer.renderPage(page);
+                PdfDocument.Page printedPage = document.startPage(page);
+                RectF contentRect = new RectF(printedPage.getInfo().getContentRect());
+                matrix.setRectToRect(
+                        new RectF(0, 0, bitmap.getWidth(), bitmap.getHeight()),
+                        contentRect,
+                        Matrix.ScaleToFit.CENTER
+                );
+                printedPage.getCanvas().drawBitmap(bitmap, matrix, paint);
+                document.finishPage(printedPage);
+            }
+
+            FileOutputStream outputStream = new FileOutputStream(destination.getFileDescriptor());
+            try {
+                document.writeTo(outputStream);
+            } finally {
+                outputStream.close();
+            }
+            final int effectiveDpi = producer.getEffectiveDpi();
+            final int requestedDpi = producer.getDpi();
+            postResult(new Runnable() {
+                @Override
+                public void run() {
+                    callback.onWriteFinished(pages);
+                    if (effectiveDpi < requestedDpi && printQualityListener != null) {
+                        printQualityListener.onPrintQualityReduced(effectiveDpi, requestedDpi);
+                    }
+                }
+            });
+        } catch (InterruptedIOException e) {
+            postResult(new Runnable() {
+                @Override
+                public void run() {
+                    callback.onWriteCancelled();
+                }
+            });
+        } catch (final IOException e) {
+            Log.e(TAG, "Cannot print document", e);
+            postResult(new Runnable() {
+                @Override
+                public void run() {
+                    callback.onWriteFailed(e.getMessage());
+                }
+            });
+        } finally {
+            document.close();
+            producer.close();
+        }
+    }
+
+    protected void postResult(Runnable result) {
+        mainHandler.post(result);
+    }
+
+    /**
+     * Resolution of the printer, up to {@link Constants#PRINT_DPI}
+     */
+    private static int getDpi(PrintAttributes attributes) {
+        PrintAttributes.Resolution resolution = attributes.getResolution();
+        if (resolution == null) {
+            return Constants.PRINT_DPI;
+        }
+        int dpi = Math.max(resolution.getHorizontalDpi(), resolution.getVerticalDpi());
+        return dpi > 0 ? Math.min(dpi, Constants.PRINT_DPI) : Constants.PRINT_DPI;
+    }
+
+    /**
+     * Number of pixels each page can use so that all the printed pages fit in the memory given to printing
+     */
+    private static float getMaxPagePixels(int printedPages) {
+        float budgetPixels = Runtime.getRuntime().maxMemory() * Constants.PRINT_HEAP_FRACTION / BYTES_PER_PIXEL;
+        return budgetPixels / Math.max(1, printedPages);
+    }
+
+    private static int countPages(PageRange[] pageRanges, int pageCount) {
+        int count = 0;
+        for (int page = 0; page < pageCount; page++) {
+            if (containsPage(pageRanges, page)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static boolean containsPage(PageRange[] pageRanges, int page) {
+        for (PageRange range : pageRanges) {
+            if (range.getStart() <= page && page <= range.getEnd()) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
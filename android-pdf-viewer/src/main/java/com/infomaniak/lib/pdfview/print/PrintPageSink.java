@@ -0,0 +1,37 @@
+/*
+ * Infomaniak android-pdf-viewer
+ * Copyright (C) 2024 Infomaniak Network SA
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.infomaniak.lib.pdfview.print;
+
+import android.graphics.Bitmap;
+
+import java.io.IOException;
+
+/**
+ * Receives the pages rendered by a {@link PrintProducer}, one at a time.
+ */
+public interface PrintPageSink {
+
+    /**
+     * Called for each page once rendered
+     *
+     * @param pageIndex index of the page in the document
+     * @param bitmap    content of the page, reused for the next page so it must not be kept once this returns
+     * @throws IOException if the page can't be written, the production then stops
+     */
+    void writePage(int pageIndex, Bitmap bitmap) throws IOException;
+}
@@ -0,0 +1,182 @@
+/*
+ * Infomaniak android-pdf-viewer
+ * Copyright (C) 2024 Infomaniak Network SA
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.infomaniak.lib.pdfview.print;
+
+import android.graphics.Bitmap;
+import android.graphics.Color;
+import android.graphics.Rect;
+
+import com.infomaniak.lib.pdfview.PdfFile;
+import com.infomaniak.lib.pdfview.exception.PageRenderingException;
+import com.infomaniak.lib.pdfview.util.Constants;
+import com.shockwave.pdfium.util.SizeF;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+
+/**
+ * Renders the pages of a document for printing, one page at a time and on the calling thread.
+ * <p>
+ * A single bitmap is reused for every page, pages larger than {@link #setMaxPagePixels(float)} at the
+ * requested resolution are rendered at a lower one, see {@link #getEffectiveDpi()}. The producer itself doesn't use more memory with
+ * more pages, but a sink keeping a copy of each page does: it should lower the maximum accordingly.
+ * Rendering can be cancelled from any thread.
+ */
+public class PrintProducer {
+
+    private static final float POINTS_PER_INCH = 72f;
+
+    private final PdfFile pdfFile;
+    private final int dpi;
+    private final boolean annotationRendering;
+    private final Rect bounds = new Rect();
+    private float maxPagePixels = Constants.PRINT_MAX_PIXELS;
+    private int effectiveDpi;
+
+    private Bitmap bitmap;
+    private volatile boolean cancelled = false;
+
+    /**
+     * @param pdfFile             document to print, must stay opened while rendering
+     * @param dpi                 resolution of the rendered pages, in dots per inch
+     * @param annotationRendering true to render the annotations
+     */
+    public PrintProducer(PdfFile pdfFile, int dpi, boolean annotationRendering) {
+        if (dpi <= 0) throw new IllegalArgumentException("dpi must be greater than 0");
+        this.pdfFile = pdfFile;
+        this.dpi = dpi;
+        this.effectiveDpi = dpi;
+        this.annotationRendering = annotationRendering;
+    }
+
+    /**
+     * @param maxPagePixels maximum number of pixels of a rendered page, {@link Constants#PRINT_MAX_PIXELS}
+     *                      by default
+     */
+    public void setMaxPagePixels(float maxPagePixels) {
+        if (maxPagePixels < 1) throw new IllegalArgumentException("maxPagePixels must be at least 1");
+        this.maxPagePixels = maxPagePixels;
+    }
+
+    public int getPageCount() {
+        return pdfFile.getPagesCount();
+    }
+
+    public int getDpi() {
+        return dpi;
+    }
+
+    /**
+     * @return the lowest resolution a page has been rendered at so far, lower than {@link #getDpi()}
+     * if a page has been larger than {@link #setMaxPagePixels(float)}
+     */
+    public int getEffectiveDpi() {
+        return effectiveDpi;
+    }
+
+    /**
+     * Render every page of the document in order into the sink
+     *
+     * @throws InterruptedIOException if {@link #cancel()} has been called
+     * @throws IOException            if a page can't be rendered or written
+     */
+    public void produce(PrintPageSink sink) throws IOException {
+        for (int page = 0; page < getPageCount(); page++) {
+            sink.writePage(page, renderPage(page));
+        }
+    }
+
+    /**
+     * Render a page, at its size in points scaled to the resolution of this producer
+     *
+     * @return the rendered page, only valid until the next page is rendered or this producer is closed
+     * @throws InterruptedIOException if {@link #cancel()} has been called
+     * @throws IOException            if the page can't be rendered
+     */
+    public Bitmap renderPage(int pageIndex) throws IOException {
+        checkCancelled();
+        try {
+            pdfFile.openPage(pageIndex);
+        } catch (PageRenderingException e) {
+            throw new IOException("Cannot open page " + pageIndex, e);
+        }
+        SizeF size = pdfFile.getPageSizePoint(pageIndex);
+        if (pdfFile.pageHasError(pageIndex) || size.getWidth() <= 0 || size.getHeight() <= 0) {
+            throw new IOException("Cannot render page " + pageIndex);
+        }
+
+        float scale = dpi / POINTS_PER_INCH;
+        float pixels = size.getWidth() * scale * size.getHeight() * scale;
+        if (pixels > maxPagePixels) {
+            scale *= (float) Math.sqrt(maxPagePixels / pixels);
+            effectiveDpi = Math.min(effectiveDpi, (int) (scale * POINTS_PER_INCH));
+        }
+        int width = Math.max(1, (int) (size.getWidth() * scale));
+        int height = Math.max(1, (int) (size.getHeight() * scale));
+
+        prepareBitmap(width, height);
+        bounds.set(0, 0, width, height);
+        pdfFile.renderPageBitmap(bitmap, pageIndex, bounds, annotationRendering);
+        checkCancelled();
+        return bitmap;
+    }
+
+    /**
+     * Stop the rendering, the current or next call to {@link #renderPage(int)} throws
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Release the bitmap the pages are rendered into
+     */
+    public void close() {
+        if (bitmap != null) {
+            bitmap.recycle();
+            bitmap = null;
+        }
+    }
+
+    private void prepareBitmap(int width, int height) {
+        if (bitmap != null && (bitmap.getWidth() != width || bitmap.getHeight() != height)) {
+            if (bitmap.getAllocationByteCount() >= width * height * 4) {
+                bitmap.reconfigure(width, height, Bitmap.Config.ARGB_8888);
+            } else {
+                bitmap.recycle();
+                bitmap = null;
+            }
+        }
+        if (bitmap == null) {
+            bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        }
+        // Pages are rendered on a transparent background, which prints as nothing on some printers.
+        // Erasing also clears the previous page from the reused bitmap.
+        bitmap.eraseColor(Color.WHITE);
+    }
+
+    private void checkCancelled() throws InterruptedIOException {
+        if (cancelled) {
+            throw new InterruptedIOException("Printing cancelled");
+        }
+    }
+}
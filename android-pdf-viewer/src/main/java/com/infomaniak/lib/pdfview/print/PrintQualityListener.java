@@ -0,0 +1,34 @@
+/*
+ * Infomaniak android-pdf-viewer
+ * Copyright (C) 2024 Infomaniak Network SA
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.infomaniak.lib.pdfview.print;
+
+/**
+ * Told when a document is printed at a lower resolution than the printer's, so that the user can be warned,
+ * for example to print fewer pages at once.
+ */
+public interface PrintQualityListener {
+
+    /**
+     * Called on the main thread once the document is written, if some pages were rendered at a lower
+     * resolution to keep all the printed pages in memory
+     *
+     * @param effectiveDpi lowest resolution a page has been rendered at, in dots per inch
+     * @param requestedDpi resolution the pages should have been rendered at
+     */
+    void onPrintQualityReduced(int effectiveDpi, int requestedDpi);
+}
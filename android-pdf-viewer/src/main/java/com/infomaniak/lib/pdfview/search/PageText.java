@@ -0,0 +1,59 @@
+/*
+ * Infomaniak android-pdf-viewer
+ * Copyright (C) 2024 Infomaniak Network SA
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.infomaniak.lib.pdfview.search;
+
+import android.graphics.RectF;
+
+import androidx.annotation.Nullable;
+
+/**
+ * Text of a page, with the box of each character when known.
+ */
+public class PageText {
+
+    private final String text;
+
+    @Nullable
+    private final RectF[] charBoxes;
+
+    /**
+     * @param text      text of the page
+     * @param charBoxes box of each character of the text, relative to the page size (between 0 and 1),
+     *                  or null if the positions are unknown
+     */
+    public PageText(String text, @Nullable RectF[] charBoxes) {
+        if (charBoxes != null && charBoxes.length != text.length()) {
+            throw new IllegalArgumentException("There must be one box per character");
+        }
+        this.text = text;
+        this.charBoxes = charBoxes;
+    }
+
+    public String getText() {
+        return text;
+    }
+
+    @Nullable
+    public RectF getCharBox(int index) {
+        return charBoxes != null ? charBoxes[index] : null;
+    }
+
+    public boolean hasCharBoxes() {
+        return charBoxes != null;
+    }
+}
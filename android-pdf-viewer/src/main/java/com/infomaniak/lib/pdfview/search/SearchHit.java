@@ -0,0 +1,66 @@
+/*
+ * Infomaniak android-pdf-viewer
+ * Copyright (C) 2024 Infomaniak Network SA
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.infomaniak.lib.pdfview.search;
+
+import android.graphics.RectF;
+
+import java.util.List;
+
+/**
+ * Occurrence of the searched text in a page.
+ */
+public class SearchHit {
+
+    private final int page;
+    private final int start;
+    private final int length;
+    private final List<RectF> rects;
+
+    public SearchHit(int page, int start, int length, List<RectF> rects) {
+        this.page = page;
+        this.start = start;
+        this.length = length;
+        this.rects = rects;
+    }
+
+    /**
+     * @return the page of the hit, as displayed, starting from 0
+     */
+    public int getPage() {
+        return page;
+    }
+
+    /**
+     * @return the index of the first character of the hit in the text of the page
+     */
+    public int getStart() {
+        return start;
+    }
+
+    public int getLength() {
+        return length;
+    }
+
+    /**
+     * @return the boxes covering the hit, one per line, relative to the page size (between 0 and 1).
+     * Empty if the text extractor doesn't give the characters positions.
+     */
+    public List<RectF> getRects() {
+        return rects;
+    }
+}
@@ -0,0 +1,40 @@
+/*
+ * Infomaniak android-pdf-viewer
+ * Copyright (C) 2024 Infomaniak Network SA
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.infomaniak.lib.pdfview.search;
+
+import androidx.annotation.Nullable;
+
+import java.io.IOException;
+
+/**
+ * Extracts the text of the pages of a document, for searching.
+ * <p>
+ * The pdfium bindings used by the library don't expose the text of the pages, so it has to be provided
+ * by the app, from a text layer it already has or from another PDF library. Extractions run on background
+ * threads, possibly several at once.
+ */
+public interface TextExtractor {
+
+    /**
+     * @param documentPage index of the page in the document, ignoring the pages selected for display
+     * @return the text of the page, or null if it has none
+     * @throws IOException if the text can't be extracted, the page is then skipped
+     */
+    @Nullable
+    PageText extractText(int documentPage) throws IOException;
+}
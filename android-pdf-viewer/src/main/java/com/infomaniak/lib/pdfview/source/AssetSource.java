@@ -23,11 +23,14 @@ import com.shockwave.pdfium.PdfDocument;
 import com.shockwave.pdfium.PdfiumCore;
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 
 public class AssetSource implements DocumentSource {
 
     private final String assetName;
+    private File file;
 
     public AssetSource(String assetName) {
         this.assetName = assetName;
@@ -35,8 +38,18 @@ public class AssetSource implements DocumentSource {
 
     @Override
     public PdfDocument createDocument(Context context, PdfiumCore core, String password) throws IOException {
-        File f = FileUtils.fileFromAsset(context, assetName);
-        ParcelFileDescriptor pfd = ParcelFileDescriptor.open(f, ParcelFileDescriptor.MODE_READ_ONLY);
+        file = FileUtils.fileFromAsset(context, assetName);
+        ParcelFileDescriptor pfd = ParcelFileDescriptor.open(file, ParcelFileDescriptor.MODE_READ_ONLY);
         return core.newDocument(pfd, password);
     }
+
+    @Override
+    public String getFingerprint(Context context) throws IOException {
+        return file != null ? FileUtils.fingerprint(file) : null;
+    }
+
+    @Override
+    public InputStream openInputStream(Context context) throws IOException {
+        return file != null ? new FileInputStream(file) : context.getAssets().open(assetName);
+    }
 }
@@ -17,10 +17,13 @@ package com.infomaniak.lib.pdfview.source;
 
 import android.content.Context;
 
+import com.infomaniak.lib.pdfview.util.FileUtils;
 import com.shockwave.pdfium.PdfDocument;
 import com.shockwave.pdfium.PdfiumCore;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 
 public class ByteArraySource implements DocumentSource {
 
@@ -34,4 +37,14 @@ public class ByteArraySource implements DocumentSource {
     public PdfDocument createDocument(Context context, PdfiumCore core, String password) throws IOException {
         return core.newDocument(data, password);
     }
+
+    @Override
+    public String getFingerprint(Context context) {
+        return FileUtils.fingerprint(data);
+    }
+
+    @Override
+    public InputStream openInputStream(Context context) {
+        return new ByteArrayInputStream(data);
+    }
 }
@@ -21,7 +21,37 @@ import com.shockwave.pdfium.PdfDocument;
 import com.shockwave.pdfium.PdfiumCore;
 
 import java.io.IOException;
+import java.io.InputStream;
 
 public interface DocumentSource {
     PdfDocument createDocument(Context context, PdfiumCore core, String password) throws IOException;
+
+    /**
+     * Identify the content of the document, so that what has been computed for it can be found back
+     * the next time it's opened. Called after {@link #createDocument(Context, PdfiumCore, String)}.
+     *
+     * @return a fingerprint of the document content, or null if the source can't provide one
+     */
+    default String getFingerprint(Context context) throws IOException {
+        return null;
+    }
+
+    /**
+     * Read the document as it is, to hand it over without going through pdfium (for printing).
+     * Called after {@link #createDocument(Context, PdfiumCore, String)}.
+     *
+     * @return a stream of the document content to be closed by the caller, or null if the source
+     * can't be read again
+     */
+    default InputStream openInputStream(Context context) throws IOException {
+        return null;
+    }
+
+    /**
+     * @return true if the document created by this source is closed along with the view, false if it's
+     * left open for the app that handed it over
+     */
+    default boolean closesDocument() {
+        return true;
+    }
 }
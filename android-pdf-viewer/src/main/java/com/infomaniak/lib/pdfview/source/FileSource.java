@@ -18,11 +18,14 @@ package com.infomaniak.lib.pdfview.source;
 import android.content.Context;
 import android.os.ParcelFileDescriptor;
 
+import com.infomaniak.lib.pdfview.util.FileUtils;
 import com.shockwave.pdfium.PdfDocument;
 import com.shockwave.pdfium.PdfiumCore;
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 
 public class FileSource implements DocumentSource {
 
@@ -37,4 +40,14 @@ public class FileSource implements DocumentSource {
         ParcelFileDescriptor pfd = ParcelFileDescriptor.open(file, ParcelFileDescriptor.MODE_READ_ONLY);
         return core.newDocument(pfd, password);
     }
+
+    @Override
+    public String getFingerprint(Context context) throws IOException {
+        return FileUtils.fingerprint(file);
+    }
+
+    @Override
+    public InputStream openInputStream(Context context) throws IOException {
+        return new FileInputStream(file);
+    }
 }
@@ -17,6 +17,7 @@ package com.infomaniak.lib.pdfview.source;
 
 import android.content.Context;
 
+import com.infomaniak.lib.pdfview.util.FileUtils;
 import com.infomaniak.lib.pdfview.util.Util;
 import com.shockwave.pdfium.PdfDocument;
 import com.shockwave.pdfium.PdfiumCore;
@@ -27,6 +28,7 @@ import java.io.InputStream;
 public class InputStreamSource implements DocumentSource {
 
     private InputStream inputStream;
+    private String fingerprint;
 
     public InputStreamSource(InputStream inputStream) {
         this.inputStream = inputStream;
@@ -34,6 +36,14 @@ public class InputStreamSource implements DocumentSource {
 
     @Override
     public PdfDocument createDocument(Context context, PdfiumCore core, String password) throws IOException {
-        return core.newDocument(Util.toByteArray(inputStream), password);
+        byte[] data = Util.toByteArray(inputStream);
+        // The stream can only be read once, fingerprint it while its content is available
+        fingerprint = FileUtils.fingerprint(data);
+        return core.newDocument(data, password);
+    }
+
+    @Override
+    public String getFingerprint(Context context) {
+        return fingerprint;
     }
 }
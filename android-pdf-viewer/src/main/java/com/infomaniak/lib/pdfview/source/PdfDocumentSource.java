@@ -0,0 +1,45 @@
+/*
+ * Infomaniak android-pdf-viewer
+ * Copyright (C) 2024 Infomaniak Network SA
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.infomaniak.lib.pdfview.source;
+
+import android.content.Context;
+
+import com.shockwave.pdfium.PdfDocument;
+import com.shockwave.pdfium.PdfiumCore;
+
+/**
+ * Hands over a document already opened by the app, which stays in charge of closing it.
+ */
+public class PdfDocumentSource implements DocumentSource {
+
+    private PdfDocument pdfDocument;
+
+    public PdfDocumentSource(PdfDocument pdfDocument) {
+        this.pdfDocument = pdfDocument;
+    }
+
+    @Override
+    public PdfDocument createDocument(Context context, PdfiumCore core, String password) {
+        return pdfDocument;
+    }
+
+    @Override
+    public boolean closesDocument() {
+        return false;
+    }
+}
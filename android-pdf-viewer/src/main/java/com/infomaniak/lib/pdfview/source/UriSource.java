@@ -19,10 +19,13 @@ import android.content.Context;
 import android.net.Uri;
 import android.os.ParcelFileDescriptor;
 
+import com.infomaniak.lib.pdfview.util.FileUtils;
 import com.shockwave.pdfium.PdfDocument;
 import com.shockwave.pdfium.PdfiumCore;
 
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 
 public class UriSource implements DocumentSource {
 
@@ -41,4 +44,24 @@ public class UriSource implements DocumentSource {
         ParcelFileDescriptor pfd = context.getContentResolver().openFileDescriptor(uri, "r");
         return core.newDocument(pfd, password);
     }
+
+    @Override
+    public String getFingerprint(Context context) throws IOException {
+        ParcelFileDescriptor pfd = context.getContentResolver().openFileDescriptor(uri, "r");
+        if (pfd == null) {
+            return null;
+        }
+        FileInputStream inputStream = new FileInputStream(pfd.getFileDescriptor());
+        try {
+            return FileUtils.fingerprint(inputStream.getChannel());
+        } finally {
+            inputStream.close();
+            pfd.close();
+        }
+    }
+
+    @Override
+    public InputStream openInputStream(Context context) throws IOException {
+        return context.getContentResolver().openInputStream(uri);
+    }
 }
@@ -0,0 +1,100 @@
+/*
+ * Infomaniak android-pdf-viewer
+ * Copyright (C) 2024 Infomaniak Network SA
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.infomaniak.lib.pdfview.util;
+
+import android.os.Process;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs the background work of the library on its own threads, at a background priority, instead of competing
+ * with the tasks of the app on the AsyncTask executor. Documents are loaded on a separate executor, so that
+ * this work never delays opening a document.
+ * <p>
+ * Short tasks (links of a page) and long-running jobs (page sizes, text indexing, printing) have their own
+ * threads, so that a few documents being indexed or printed never hold back the short tasks.
+ */
+public class BackgroundExecutor {
+
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    private static final ThreadPoolExecutor EXECUTOR = newExecutor(
+            Constants.BACKGROUND_THREADS,
+            "PDF background #"
+    );
+
+    private static final ThreadPoolExecutor LONG_RUNNING_EXECUTOR = newExecutor(
+            Constants.LONG_RUNNING_THREADS,
+            "PDF long-running #"
+    );
+
+    private BackgroundExecutor() {
+        // Prevents instantiation
+    }
+
+    /**
+     * Run a short task, taking at most a few pages
+     */
+    public static void execute(Runnable runnable) {
+        EXECUTOR.execute(runnable);
+    }
+
+    /**
+     * Run a job going through a whole document
+     */
+    public static void executeLongRunning(Runnable runnable) {
+        LONG_RUNNING_EXECUTOR.execute(runnable);
+    }
+
+    private static ThreadPoolExecutor newExecutor(int threads, String threadName) {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(
+                threads,
+                threads,
+                KEEP_ALIVE_SECONDS,
+                TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(),
+                new BackgroundThreadFactory(threadName)
+        );
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    private static class BackgroundThreadFactory implements ThreadFactory {
+        private final AtomicInteger threadNumber = new AtomicInteger(1);
+        private final String threadName;
+
+        BackgroundThreadFactory(String threadName) {
+            this.threadName = threadName;
+        }
+
+        @Override
+        public Thread newThread(final Runnable runnable) {
+            return new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                    runnable.run();
+                }
+            }, threadName + threadNumber.getAndIncrement());
+        }
+    }
+}
@@ -31,6 +31,29 @@ object Constants {
      */
     const val THUMBNAIL_RATIO_PRINTING = 0.75f
 
+    /**
+     * Maximum resolution of the printed pages, in dots per inch.
+     */
+    const val PRINT_DPI = 300
+
+    /**
+     * Maximum number of pixels of a printed page (an A4 page at 300 DPI), larger pages are printed
+     * at a lower resolution to bound the memory used.
+     */
+    const val PRINT_MAX_PIXELS = 2480f * 3508f
+
+    /**
+     * Fraction of the heap the pages printed through the print framework may use altogether. The printed
+     * document keeps a copy of every page until it's written, so the more pages, the lower the resolution.
+     */
+    const val PRINT_HEAP_FRACTION = 1f / 4f
+
+    /**
+     * Minimum number of pixels of a printed page (an A4 page at 72 DPI). Printing fails when there are
+     * too many pages to keep them all at this resolution.
+     */
+    const val PRINT_MIN_PIXELS = 595f * 842f
+
     /**
      * The size of the rendered parts (default 256).
      * Tinier : a little bit slower to have the whole page rendered but more reactive.
@@ -38,17 +61,138 @@ object Constants {
      */
     const val PART_SIZE = 256.0f
 
+    /**
+     * Number of pixels above which a bitmap is rendered by slices (default 1024 * 1024, 16 parts).
+     * Each slice renders the whole page content clipped to it, so parts and thumbnails are rendered at once.
+     */
+    const val RENDER_SLICE_MIN_PIXELS = 1024 * 1024
+
+    /**
+     * Height of the slices large bitmaps are rendered by, in pixels (default 1024, 4 parts).
+     * A rendering can only be aborted between two slices, but each slice renders the page content again.
+     */
+    const val RENDER_SLICE_HEIGHT = 1024
+
+    /**
+     * Number of zoom levels rendered between a zoom and its double (default 2).
+     * Parts are rendered for the zoom level just above the current zoom, so that they can be reused
+     * when coming back to a previous zoom and drawn scaled while the parts of another level are rendering.
+     */
+    const val ZOOM_LEVELS_PER_OCTAVE = 2
+
+    /**
+     * Number of pages around the first displayed page whose size is read before showing the document.
+     * The size of the other pages is estimated, then read by chunks of [PAGE_SIZES_CHUNK] in the background.
+     */
+    const val EAGER_PAGE_SIZES = 64
+    const val PAGE_SIZES_CHUNK = 256
+
     /**
      * Part of document above and below screen that should be preloaded, in dp.
      */
     const val PRELOAD_OFFSET = 20
 
+    /**
+     * Part of the view length preloaded ahead of the scroll direction, the trailing side isn't preloaded.
+     */
+    const val PRELOAD_LEADING_RATIO = 0.5f
+
+    /**
+     * Number of rendering threads. Pdfium renders one bitmap at a time, the second thread prepares the next
+     * task (bitmap, disk cache) while the first one is rendering.
+     */
+    const val RENDERING_THREADS = 2
+
+    /**
+     * Number of threads searching the pages in parallel.
+     */
+    const val SEARCH_THREADS = 2
+
+    /**
+     * Number of threads loading documents. A document replaced while loading stops at the next stage.
+     */
+    const val LOADER_THREADS = 2
+
+    /**
+     * Number of threads running the short background tasks of the views, such as reading the links of a page.
+     */
+    const val BACKGROUND_THREADS = 2
+
+    /**
+     * Number of threads running the long background jobs of the views: page sizes, text indexing and printing.
+     */
+    const val LONG_RUNNING_THREADS = 3
+
     object Cache {
         /**
          * The size of the cache (number of bitmaps kept).
          */
+        @Deprecated("The caches are sized in bytes, see PARTS_HEAP_FRACTION and THUMBNAILS_HEAP_FRACTION")
         const val CACHE_SIZE = 120
+        @Deprecated("The caches are sized in bytes, see PARTS_HEAP_FRACTION and THUMBNAILS_HEAP_FRACTION")
         const val THUMBNAILS_CACHE_SIZE = 8
+
+        /**
+         * Share of the app heap used by the rendered parts, on regular and low RAM devices.
+         */
+        const val PARTS_HEAP_FRACTION = 1f / 4
+        const val LOW_RAM_PARTS_HEAP_FRACTION = 1f / 8
+
+        /**
+         * Number of times the parts cache can cover the view at least, whatever the heap size.
+         */
+        const val PARTS_VIEW_COVERAGE = 3
+
+        /**
+         * Share of the app heap used by the thumbnails, on regular and low RAM devices.
+         */
+        const val THUMBNAILS_HEAP_FRACTION = 1f / 16
+        const val LOW_RAM_THUMBNAILS_HEAP_FRACTION = 1f / 32
+
+        /**
+         * Maximum share of the app heap used by the rendered parts, whatever the view size.
+         */
+        const val MAX_HEAP_FRACTION = 1f / 2
+
+        /**
+         * Share of the budget of a shared cache given to the active view, the other views split the rest.
+         */
+        const val ACTIVE_VIEW_SHARE = 0.6f
+
+        /**
+         * Maximum size in bytes of the bitmaps kept for reuse once evicted from the cache.
+         */
+        const val BITMAP_POOL_SIZE = 8 * 1024 * 1024
+
+        /**
+         * Maximum number of pages kept opened in pdfium at once, the least recently used are closed beyond it.
+         */
+        const val MAX_OPENED_PAGES = 20
+
+        /**
+         * Maximum size in bytes of the rendered parts kept on disk, when the disk cache is enabled.
+         */
+        const val DISK_CACHE_SIZE = 64L * 1024 * 1024
+
+        /**
+         * Number of documents whose page sizes are kept on disk.
+         */
+        const val LAYOUT_INDEX_COUNT = 100
+
+        /**
+         * Number of documents whose text is kept on disk, when the text index is enabled.
+         */
+        const val TEXT_INDEX_COUNT = 20
+
+        /**
+         * Number of pages whose text is stored in the text index in a single transaction.
+         */
+        const val TEXT_INDEX_BATCH_PAGES = 16
+
+        /**
+         * Number of pages whose links are kept to hit-test the taps.
+         */
+        const val LINK_INDEX_PAGES = 64
     }
 
     object Pinch {
@@ -18,13 +18,23 @@ package com.infomaniak.lib.pdfview.util;
 import android.content.Context;
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 
 public class FileUtils {
 
+    /**
+     * Number of bytes hashed at the beginning and at the end of a document to fingerprint it
+     */
+    private static final int FINGERPRINT_SAMPLE_SIZE = 64 * 1024;
+
     private FileUtils() {
         // Prevents instantiation
     }
@@ -38,6 +48,78 @@ public class FileUtils {
         return outFile;
     }
 
+    /**
+     * Fingerprint a document from its size and the bytes at its beginning and at its end,
+     * where a PDF keeps its header, cross-reference table and trailer, and where incremental updates are appended.
+     */
+    public static String fingerprint(File file) throws IOException {
+        FileInputStream inputStream = new FileInputStream(file);
+        try {
+            return fingerprint(inputStream.getChannel());
+        } finally {
+            inputStream.close();
+        }
+    }
+
+    /**
+     * @see #fingerprint(File)
+     */
+    public static String fingerprint(FileChannel channel) throws IOException {
+        long size = channel.size();
+        MessageDigest digest = newFingerprintDigest(size);
+        ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(FINGERPRINT_SAMPLE_SIZE, size));
+        readFully(channel, buffer, 0);
+        digest.update(buffer.array(), 0, buffer.position());
+        if (size > FINGERPRINT_SAMPLE_SIZE) {
+            buffer.clear();
+            readFully(channel, buffer, Math.max(FINGERPRINT_SAMPLE_SIZE, size - FINGERPRINT_SAMPLE_SIZE));
+            digest.update(buffer.array(), 0, buffer.position());
+        }
+        return toHex(digest.digest());
+    }
+
+    /**
+     * @see #fingerprint(File)
+     */
+    public static String fingerprint(byte[] data) {
+        MessageDigest digest = newFingerprintDigest(data.length);
+        int sampleSize = Math.min(FINGERPRINT_SAMPLE_SIZE, data.length);
+        digest.update(data, 0, sampleSize);
+        if (data.length > FINGERPRINT_SAMPLE_SIZE) {
+            int tailStart = Math.max(FINGERPRINT_SAMPLE_SIZE, data.length - FINGERPRINT_SAMPLE_SIZE);
+            digest.update(data, tailStart, data.length - tailStart);
+        }
+        return toHex(digest.digest());
+    }
+
+    private static MessageDigest newFingerprintDigest(long size) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            digest.update(ByteBuffer.allocate(8).putLong(size).array());
+            return digest;
+        } catch (NoSuchAlgorithmException e) {
+            // Every Android version provides SHA-1
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position + buffer.position());
+            if (read < 0) {
+                break;
+            }
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder builder = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            builder.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return builder.toString();
+    }
+
     public static void copy(InputStream inputStream, File output) throws IOException {
         OutputStream outputStream = null;
         try {
@@ -0,0 +1,145 @@
+/*
+ * Infomaniak android-pdf-viewer
+ * Copyright (C) 2024 Infomaniak Network SA
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.infomaniak.lib.pdfview;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import android.graphics.Bitmap;
+import android.graphics.RectF;
+
+import com.infomaniak.lib.pdfview.model.PagePart;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+@RunWith(RobolectricTestRunner.class)
+public class CacheManagerTest {
+
+    private static final int PART_SIZE = 10;
+    private static final long PART_BYTES = PART_SIZE * PART_SIZE * 4;
+
+    private CacheManager cacheManager;
+
+    @Before
+    public void setUp() {
+        cacheManager = new CacheManager(new BitmapPool(), 2 * PART_BYTES, 2 * PART_BYTES);
+    }
+
+    private static PagePart newPart(int page, int row, int col) {
+        Bitmap bitmap = Bitmap.createBitmap(PART_SIZE, PART_SIZE, Bitmap.Config.ARGB_8888);
+        return new PagePart(page, bitmap, new RectF(0, 0, 1, 1), false, 0, 0, CacheManager.partKey(page, 0, row, col));
+    }
+
+    private static PagePart newThumbnail(int page) {
+        Bitmap bitmap = Bitmap.createBitmap(PART_SIZE, PART_SIZE, Bitmap.Config.ARGB_8888);
+        return new PagePart(page, bitmap, new RectF(0, 0, 1, 1), true, 0);
+    }
+
+    @Test
+    public void partKey_isUniquePerCell() {
+        long key = CacheManager.partKey(3, 2, 5, 7);
+        assertEquals(key, CacheManager.partKey(3, 2, 5, 7));
+        assertNotEquals(key, CacheManager.partKey(4, 2, 5, 7));
+        assertNotEquals(key, CacheManager.partKey(3, 1, 5, 7));
+        assertNotEquals(key, CacheManager.partKey(3, 2, 7, 5));
+        assertNotEquals(key, CacheManager.partKey(3, 2, 5, 8));
+    }
+
+    @Test
+    public void partKey_keepsTheFieldsApart() {
+        // A carry from the column must not reach the row, nor the row reach the zoom level
+        assertNotEquals(CacheManager.partKey(0, 0, 1, 0), CacheManager.partKey(0, 0, 0, 0x1000));
+        assertNotEquals(CacheManager.partKey(0, 1, 0, 0), CacheManager.partKey(0, 0, 0x1000, 0));
+        assertNotEquals(CacheManager.partKey(1, 0, 0, 0), CacheManager.partKey(0, 0x100, 0, 0));
+    }
+
+    @Test
+    public void cachePart_evictsTheLeastRecentlyUsedPart() {
+        PagePart first = newPart(0, 0, 0);
+        PagePart second = newPart(0, 0, 1);
+        cacheManager.cachePart(first);
+        cacheManager.cachePart(second);
+
+        // Asking for the first part again makes the second one the eldest
+        cacheManager.makeANewSet();
+        assertTrue(cacheManager.upPartIfContained(first.getCacheKey(), 1));
+        PagePart third = newPart(1, 0, 0);
+        cacheManager.cachePart(third);
+
+        assertFalse(cacheManager.upPartIfContained(second.getCacheKey(), 2));
+        assertTrue(cacheManager.upPartIfContained(first.getCacheKey(), 2));
+        assertTrue(cacheManager.upPartIfContained(third.getCacheKey(), 3));
+    }
+
+    @Test
+    public void removePassiveParts_keepsThePartsOfTheCurrentSet() {
+        PagePart first = newPart(0, 0, 0);
+        PagePart second = newPart(0, 0, 1);
+        cacheManager.cachePart(first);
+        cacheManager.cachePart(second);
+
+        cacheManager.makeANewSet();
+        cacheManager.upPartIfContained(second.getCacheKey(), 1);
+        cacheManager.removePassiveParts();
+
+        assertFalse(cacheManager.upPartIfContained(first.getCacheKey(), 2));
+        assertTrue(cacheManager.upPartIfContained(second.getCacheKey(), 2));
+    }
+
+    @Test
+    public void removeAllParts_keepsTheThumbnails() {
+        PagePart part = newPart(0, 0, 0);
+        cacheManager.cachePart(part);
+        cacheManager.cacheThumbnail(newThumbnail(0), false);
+
+        cacheManager.removeAllParts();
+
+        assertFalse(cacheManager.upPartIfContained(part.getCacheKey(), 1));
+        assertTrue(cacheManager.containsThumbnail(0));
+    }
+
+    @Test
+    public void cacheThumbnail_evictsTheEldestThumbnail() {
+        cacheManager.cacheThumbnail(newThumbnail(0), false);
+        cacheManager.cacheThumbnail(newThumbnail(1), false);
+        cacheManager.cacheThumbnail(newThumbnail(2), false);
+
+        assertFalse(cacheManager.containsThumbnail(0));
+        assertTrue(cacheManager.containsThumbnail(1));
+        assertTrue(cacheManager.containsThumbnail(2));
+    }
+
+    @Test
+    public void pinnedThumbnails_areNotEvicted() {
+        cacheManager.setThumbnailsPinned(true);
+        cacheManager.cacheThumbnail(newThumbnail(0), true);
+        cacheManager.cacheThumbnail(newThumbnail(1), true);
+        cacheManager.cacheThumbnail(newThumbnail(2), false);
+        cacheManager.removeThumbnailsOutside(2, 2);
+
+        assertTrue(cacheManager.containsThumbnail(0));
+        assertTrue(cacheManager.containsThumbnail(1));
+        assertTrue(cacheManager.containsThumbnail(2));
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ * Infomaniak android-pdf-viewer
+ * Copyright (C) 2024 Infomaniak Network SA
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.infomaniak.lib.pdfview;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class PdfFileTest {
+
+    /**
+     * Three pages of length 100 separated by 10, each page starts half of its spacing before its offset
+     */
+    private static final float[] PAGE_OFFSETS = {0, 110, 220};
+    private static final float[] PAGE_SPACING = {10, 10, 10};
+
+    private static int getPageAtOffset(float offset, float zoom) {
+        return PdfFile.getPageAtOffset(PAGE_OFFSETS, PAGE_SPACING, PAGE_OFFSETS.length, offset, zoom);
+    }
+
+    @Test
+    public void getPageAtOffset_returnsTheLastPageStartingBeforeTheOffset() {
+        assertEquals(0, getPageAtOffset(0, 1));
+        assertEquals(0, getPageAtOffset(104, 1));
+        assertEquals(1, getPageAtOffset(106, 1));
+        assertEquals(2, getPageAtOffset(216, 1));
+    }
+
+    @Test
+    public void getPageAtOffset_excludesThePageStartingAtTheOffset() {
+        assertEquals(0, getPageAtOffset(105, 1));
+    }
+
+    @Test
+    public void getPageAtOffset_clampsToTheDocument() {
+        assertEquals(0, getPageAtOffset(-50, 1));
+        assertEquals(2, getPageAtOffset(10_000, 1));
+    }
+
+    @Test
+    public void getPageAtOffset_scalesWithTheZoom() {
+        assertEquals(0, getPageAtOffset(200, 2));
+        assertEquals(1, getPageAtOffset(300, 2));
+        assertEquals(2, getPageAtOffset(440, 2));
+    }
+
+    @Test
+    public void getPageAtOffset_withoutPages() {
+        assertEquals(0, PdfFile.getPageAtOffset(new float[0], new float[0], 0, 100, 1));
+    }
+}
@@ -0,0 +1,56 @@
+/*
+ * Infomaniak android-pdf-viewer
+ * Copyright (C) 2024 Infomaniak Network SA
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.infomaniak.lib.pdfview;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class SearchEngineTest {
+
+    @Test
+    public void indexOf_ignoresTheCase() {
+        assertEquals(6, SearchEngine.indexOf("Hello World", "world", 0));
+        assertEquals(0, SearchEngine.indexOf("Hello World", "HELLO", 0));
+    }
+
+    @Test
+    public void indexOf_startsFromTheGivenIndex() {
+        assertEquals(8, SearchEngine.indexOf("one two one", "ONE", 1));
+    }
+
+    @Test
+    public void indexOf_matchesFromTheStartOfAWord() {
+        assertEquals(-1, SearchEngine.indexOf("Hello World", "orld", 0));
+        assertEquals(11, SearchEngine.indexOf("one-third (2nd)", "2n", 0));
+        assertEquals(4, SearchEngine.indexOf("one-third", "third", 0));
+    }
+
+    @Test
+    public void indexOf_matchesAnywhereAQueryStartingWithASeparator() {
+        assertEquals(3, SearchEngine.indexOf("one-third", "-th", 0));
+    }
+
+    @Test
+    public void indexOf_returnsMinusOneWithoutMatch() {
+        assertEquals(-1, SearchEngine.indexOf("Hello World", "planet", 0));
+        assertEquals(-1, SearchEngine.indexOf("Hi", "Hello", 0));
+        assertEquals(-1, SearchEngine.indexOf("Hello World", "world", 7));
+    }
+}
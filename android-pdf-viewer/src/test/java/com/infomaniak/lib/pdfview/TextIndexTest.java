@@ -0,0 +1,51 @@
+/*
+ * Infomaniak android-pdf-viewer
+ * Copyright (C) 2024 Infomaniak Network SA
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.infomaniak.lib.pdfview;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+public class TextIndexTest {
+
+    @Test
+    public void getMatchExpression_looksTheLastWordUpAsAPrefix() {
+        assertEquals("\"hel*\"", TextIndex.getMatchExpression("hel"));
+        assertEquals("\"Hello wor*\"", TextIndex.getMatchExpression("Hello wor"));
+    }
+
+    @Test
+    public void getMatchExpression_keepsACompleteLastWordExact() {
+        assertEquals("\"hello\"", TextIndex.getMatchExpression("hello "));
+        assertEquals("\"one third\"", TextIndex.getMatchExpression("one-third."));
+    }
+
+    @Test
+    public void getMatchExpression_keepsTheQueryInASinglePhrase() {
+        assertEquals("\"say hi*\"", TextIndex.getMatchExpression("\"say\" -hi"));
+        assertEquals("\"a OR b*\"", TextIndex.getMatchExpression("(a OR) b"));
+    }
+
+    @Test
+    public void getMatchExpression_withoutWords() {
+        assertNull(TextIndex.getMatchExpression("--"));
+        assertNull(TextIndex.getMatchExpression(""));
+    }
+}